@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// Parses many small documents concurrently. The documents are split into runs of consecutive
+// documents, each run being one task on the executor: virtual threads when the runtime has them
+// (Java 21 and later), a pool of one thread per core otherwise. At most `parallelism` runs are
+// parsed at the same time, and the parsers are pooled and reset() between documents instead of
+// being created for each one; all of them share one symbol table. Options a handler sets on its
+// parser only last for its document. The handler gets a parser
+// positioned at the start of its document.
+// Files are parsed by a fixed number of workers instead, see parseFiles().
+public class BatchParser implements AutoCloseable {
+
+	private ExecutorService executor;
+	private boolean ownsExecutor;
+	private static final int MAX_RUN_LENGTH = 64;
+	private static final int NO_MORE_FILES = -1;
+
+	private int parallelism;
+	private Semaphore permits; // one per run being parsed
+	private BlockingQueue<Parser> parsers; // idle parsers, never more than the permits
+	private SymbolTable symbols;
+
+	public BatchParser() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchParser(int parallelism) {
+		this(newDefaultExecutor(parallelism), parallelism);
+		this.ownsExecutor = true;
+	}
+
+	// the executor is not shut down by close()
+	public BatchParser(ExecutorService executor, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.permits = new Semaphore(parallelism);
+		this.parsers = new ArrayBlockingQueue<Parser>(parallelism);
+		this.symbols = new SymbolTable();
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() is looked up at run time so that the class still
+	// compiles and runs on Java 17
+	private static ExecutorService newDefaultExecutor(int parallelism) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(parallelism);
+		}
+	}
+
+	public <R> Report<R> parseAll(Collection<String> inputs, Function<Parser, R> handler) throws InterruptedException {
+		return parseAll(inputs.stream(), handler);
+	}
+
+	// Outcomes are in the order of the inputs; a handler that throws only fails its own document.
+	// The stream is collected before the first run starts: it must be a finite batch that fits in
+	// memory. An interrupted caller cancels the runs, which stop before their next document.
+	public <R> Report<R> parseAll(Stream<String> inputs, Function<Parser, R> handler) throws InterruptedException {
+		long start = System.nanoTime();
+		List<String> documents = new ArrayList<String>();
+		inputs.forEachOrdered(documents::add);
+		Outcome<R>[] outcomes = newOutcomes(documents.size());
+
+		// runs short enough to keep every worker busy, long enough to amortize scheduling a task
+		int runLength = Math.max(1, Math.min(MAX_RUN_LENGTH, documents.size() / (parallelism * 4)));
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int first = 0; first < documents.size(); first += runLength) {
+			int from = first;
+			int to = Math.min(first + runLength, documents.size());
+			futures.add(executor.submit(() -> {
+				parseRun(documents, from, to, handler, outcomes);
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Batch task failed", e.getCause());
+			} catch (InterruptedException e) {
+				cancel(futures);
+				throw e;
+			}
+		}
+		return new Report<R>(Arrays.asList(outcomes), System.nanoTime() - start);
+	}
+
+	// Parses each file with its own parser, which maps the file rather than reading it. Files are
+	// handed to as many workers as the parallelism through a bounded queue, filled in decreasing order of size: the
+	// largest files start first and the small ones fill the gaps at the end, so that no worker is left
+	// with a large file once the others are done. Outcomes are in the order of the files given, with
+	// the file size as length; a file that cannot be read fails on its own, with an UncheckedIOException.
+	public <R> Report<R> parseFiles(Collection<Path> files, Function<Parser, R> handler) throws InterruptedException {
+		long start = System.nanoTime();
+		List<Path> paths = new ArrayList<Path>(files);
+		long[] sizes = new long[paths.size()];
+		List<Integer> largestFirst = new ArrayList<Integer>();
+		for (int index = 0; index < paths.size(); index++) {
+			try {
+				sizes[index] = Files.size(paths.get(index));
+			} catch (IOException e) {
+				sizes[index] = 0; // reported when the file is parsed
+			}
+			largestFirst.add(index);
+		}
+		largestFirst.sort(Comparator.comparingLong((Integer index) -> sizes[index]).reversed());
+		Outcome<R>[] outcomes = newOutcomes(paths.size());
+
+		BlockingQueue<Integer> queue = new ArrayBlockingQueue<Integer>(parallelism * 2);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int worker = 0; worker < parallelism; worker++) {
+			futures.add(executor.submit(() -> {
+				for (int index = queue.take(); index != NO_MORE_FILES; index = queue.take()) {
+					outcomes[index] = parseFile(index, paths.get(index), sizes[index], handler);
+				}
+				return null;
+			}));
+		}
+		try {
+			for (int index : largestFirst) {
+				queue.put(index);
+			}
+			for (int worker = 0; worker < parallelism; worker++) {
+				queue.put(NO_MORE_FILES);
+			}
+		} catch (InterruptedException e) {
+			cancel(futures);
+			throw e;
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Batch task failed", e.getCause());
+			} catch (InterruptedException e) {
+				cancel(futures);
+				throw e;
+			}
+		}
+		return new Report<R>(Arrays.asList(outcomes), System.nanoTime() - start);
+	}
+
+	// a worker busy with a file stops once the file is parsed, and workers waiting for one at once
+	private static void cancel(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private <R> Outcome<R> parseFile(int index, Path file, long size, Function<Parser, R> handler) {
+		long start = System.nanoTime();
+		try {
+			Parser parser = new Parser(file);
+			parser.setSymbolTable(symbols);
+			return new Outcome<R>(index, size, handler.apply(parser), null, System.nanoTime() - start);
+		} catch (IOException e) {
+			return new Outcome<R>(index, size, null, new UncheckedIOException(e), System.nanoTime() - start);
+		} catch (RuntimeException e) {
+			return new Outcome<R>(index, size, null, e, System.nanoTime() - start);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> Outcome<R>[] newOutcomes(int size) {
+		return (Outcome<R>[]) new Outcome<?>[size];
+	}
+
+	private <R> void parseRun(List<String> documents, int from, int to, Function<Parser, R> handler,
+							  Outcome<R>[] outcomes) throws InterruptedException {
+		permits.acquire();
+		Parser parser = parsers.poll();
+		try {
+			for (int index = from; index < to; index++) {
+				if (Thread.currentThread().isInterrupted()) { // cancelled
+					throw new InterruptedException();
+				}
+				String input = documents.get(index);
+				long start = System.nanoTime();
+				if (parser == null) {
+					parser = new Parser(input);
+					parser.setSymbolTable(symbols);
+				} else {
+					parser.reset(input);
+					// back to the batch's settings, which a handler may have changed
+					parser.setRecycleElements(false);
+					parser.setMetrics(null);
+					parser.setSymbolTable(symbols);
+				}
+				try {
+					R value = handler.apply(parser);
+					outcomes[index] = new Outcome<R>(index, input.length(), value, null, System.nanoTime() - start);
+				} catch (RuntimeException e) {
+					outcomes[index] = new Outcome<R>(index, input.length(), null, e, System.nanoTime() - start);
+				}
+			}
+		} finally {
+			if (parser != null) {
+				parsers.offer(parser);
+			}
+			permits.release();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	public static class Outcome<R> {
+		private int index;
+		private long length;
+		private R value;
+		private RuntimeException error;
+		private long nanos;
+
+		Outcome(int index, long length, R value, RuntimeException error, long nanos) {
+			this.index = index;
+			this.length = length;
+			this.value = value;
+			this.error = error;
+			this.nanos = nanos;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		// chars of a document, bytes of a file
+		public long getLength() {
+			return length;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+
+		// the handler's result, null when it failed
+		public R getValue() {
+			return value;
+		}
+
+		public RuntimeException getError() {
+			return error;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+	}
+
+	// per-document outcomes and the throughput and latency of the whole batch
+	public static class Report<R> {
+		private List<Outcome<R>> outcomes;
+		private long wallNanos;
+		private long totalLength;
+		private int failures;
+		private long[] sortedNanos;
+
+		Report(List<Outcome<R>> outcomes, long wallNanos) {
+			this.outcomes = outcomes;
+			this.wallNanos = wallNanos;
+			this.sortedNanos = new long[outcomes.size()];
+			for (int i = 0; i < outcomes.size(); i++) {
+				Outcome<R> outcome = outcomes.get(i);
+				totalLength += outcome.length;
+				failures += outcome.isSuccess() ? 0 : 1;
+				sortedNanos[i] = outcome.nanos;
+			}
+			Arrays.sort(sortedNanos);
+		}
+
+		public List<Outcome<R>> getOutcomes() {
+			return outcomes;
+		}
+
+		public int getDocumentCount() {
+			return outcomes.size();
+		}
+
+		public int getFailureCount() {
+			return failures;
+		}
+
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		public double getDocumentsPerSecond() {
+			return outcomes.size() / (wallNanos / 1e9);
+		}
+
+		// input chars counted as bytes, as in ParserBenchmark, and file sizes in bytes
+		public double getMegabytesPerSecond() {
+			return totalLength / (1024.0 * 1024.0) / (wallNanos / 1e9);
+		}
+
+		// parse time of a single document, percentile between 0 and 100
+		public long getLatencyNanos(double percentile) {
+			if (sortedNanos.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(percentile / 100 * sortedNanos.length) - 1;
+			return sortedNanos[Math.max(0, Math.min(rank, sortedNanos.length - 1))];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d documents, %d failed, %.0f documents/s, %.2f MB/s, p50 %.1f us, p99 %.1f us",
+								 outcomes.size(), failures, getDocumentsPerSecond(), getMegabytesPerSecond(),
+								 getLatencyNanos(50) / 1e3, getLatencyNanos(99) / 1e3);
+		}
+	}
+}
\ No newline at end of file
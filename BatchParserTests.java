@@ -0,0 +1,211 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class BatchParserTests {
+
+	@Test
+	public void outcomes_follow_the_inputs_and_failures_stay_isolated() throws InterruptedException {
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			inputs.add(i == 7 ? "<order id=\"7\">" : "<order id=\"" + i + "\"><amount>" + i + "</amount></order>");
+		}
+		
+		BatchParser.Report<String> report;
+		try (BatchParser sut = new BatchParser(3)) {
+			report = sut.parseAll(inputs, parser -> {
+				parser.readNext();
+				String id = parser.getCurrentAttributes().get("id");
+				parser.readNext();
+				return id + "=" + parser.getCurrentData();
+			});
+		}
+		
+		assertEquals(report.getDocumentCount(), 500);
+		assertEquals(report.getFailureCount(), 1);
+		assertFalse(report.getOutcomes().get(7).isSuccess());
+		assertTrue(report.getOutcomes().get(7).getError() instanceof StringIndexOutOfBoundsException);
+		for (int i = 0; i < 500; i++) {
+			assertEquals(report.getOutcomes().get(i).getIndex(), i);
+			if (i != 7) {
+				assertEquals(report.getOutcomes().get(i).getValue(), i + "=" + i);
+			}
+		}
+		assertTrue(report.getLatencyNanos(50) <= report.getLatencyNanos(99));
+		assertTrue(report.getDocumentsPerSecond() > 0);
+	}
+
+	@Test
+	public void an_interrupted_caller_cancels_the_runs() throws InterruptedException {
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			inputs.add("<order id=\"" + i + "\"/>");
+		}
+		AtomicInteger handled = new AtomicInteger();
+		
+		try (BatchParser sut = new BatchParser(2)) {
+			Thread.currentThread().interrupt();
+			assertThrows(InterruptedException.class, () -> sut.parseAll(inputs, parser -> {
+				handled.incrementAndGet();
+				LockSupport.parkNanos(1_000_000);
+				return null;
+			}));
+			Thread.sleep(200);
+			int stopped = handled.get();
+			Thread.sleep(200);
+			assertEquals(handled.get(), stopped);
+			assertTrue(stopped < 1000);
+		}
+	}
+	
+	@Test
+	public void an_interrupted_caller_cancels_the_file_workers() throws IOException, InterruptedException {
+		Path directory = Files.createTempDirectory("batch");
+		List<Path> files = new ArrayList<Path>();
+		for (int i = 0; i < 4; i++) {
+			files.add(Files.write(directory.resolve(i + ".xml"), "<order/>".getBytes(StandardCharsets.UTF_8)));
+		}
+		AtomicInteger handled = new AtomicInteger();
+		Thread caller = Thread.currentThread();
+		Thread interrupter = new Thread(() -> {
+			LockSupport.parkNanos(100_000_000);
+			caller.interrupt();
+		});
+		
+		try (BatchParser sut = new BatchParser(2)) {
+			interrupter.start();
+			assertThrows(InterruptedException.class, () -> sut.parseFiles(files, parser -> {
+				handled.incrementAndGet();
+				LockSupport.parkNanos(300_000_000);
+				return null;
+			}));
+			interrupter.join();
+			int stopped = handled.get();
+			Thread.sleep(500);
+			assertEquals(handled.get(), stopped);
+			assertTrue(stopped < 4);
+		}
+		
+		for (Path file : files) {
+			Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+	
+	@Test
+	public void pooled_parsers_forget_the_options_of_the_previous_document() throws InterruptedException {
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < 40; i++) {
+			inputs.add(i % 2 == 0 ? "<keep>say <b/> world </keep>" : "<trim>say <b/> world </trim>");
+		}
+		
+		Set<SymbolTable> tables = ConcurrentHashMap.newKeySet();
+		
+		BatchParser.Report<String> report;
+		try (BatchParser sut = new BatchParser(1)) { // a single parser, reset() between documents
+			report = sut.parseAll(inputs, parser -> {
+				String options = (parser.isRecyclingElements() ? " recycling" : "") + (parser.getMetrics() != null ? " metrics" : "");
+				parser.readNext();
+				if (parser.getCurrentElement().getName().equals("keep")) {
+					parser.setPreserveWhitespace(true);
+					parser.setRecycleElements(true);
+					parser.setMetrics(new ParserMetrics());
+					parser.setSymbolTable(new SymbolTable());
+				} else {
+					tables.add(parser.getSymbolTable());
+				}
+				parser.readNext(); // <b/>
+				parser.readNext();
+				return parser.getCurrentData() + options;
+			});
+		}
+		
+		for (int i = 0; i < 40; i++) {
+			assertEquals(report.getOutcomes().get(i).getValue(), i % 2 == 0 ? "say world " : "sayworld");
+		}
+		assertEquals(tables.size(), 1); // the table shared by the batch
+	}
+
+	@Test
+	public void entities_registered_by_a_handler_end_with_its_document() throws InterruptedException {
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < 40; i++) {
+			inputs.add(i % 2 == 0 ? "<own><v>&co;</v></own>" : "<other><v>&co;</v></other>");
+		}
+		
+		BatchParser.Report<String> report;
+		try (BatchParser sut = new BatchParser(1)) {
+			report = sut.parseAll(inputs, parser -> {
+				parser.readNext();
+				if (parser.getCurrentElement().getName().equals("own")) {
+					parser.registerEntity("co", "ACME");
+				}
+				parser.readNext();
+				return parser.getCurrentData();
+			});
+		}
+		
+		for (int i = 0; i < 40; i++) {
+			assertEquals(report.getOutcomes().get(i).getValue(), i % 2 == 0 ? "ACME" : "&co;");
+		}
+	}
+
+	@Test
+	public void files_are_parsed_by_size_and_reported_in_order() throws IOException, InterruptedException {
+		Path directory = Files.createTempDirectory("batch");
+		List<Path> files = new ArrayList<Path>();
+		for (int i = 0; i < 20; i++) {
+			StringBuilder xml = new StringBuilder("<orders>");
+			for (int j = 0; j < i * 10; j++) {
+				xml.append("<order id=\"").append(j).append("\"/>");
+			}
+			files.add(Files.write(directory.resolve(i + ".xml"), xml.append("</orders>").toString().getBytes(StandardCharsets.UTF_8)));
+		}
+		files.add(3, directory.resolve("missing.xml"));
+
+		List<Integer> handled = new ArrayList<Integer>();
+		BatchParser.Report<Integer> report;
+		try (BatchParser sut = new BatchParser(1)) { // one worker takes the files in queue order
+			report = sut.parseFiles(files, parser -> {
+				int count = 0;
+				while (parser.readNext() != Parser.NextInputType.CLOSING_TAG || parser.hasCurrentElement()) {
+					count++;
+				}
+				handled.add(count);
+				return count;
+			});
+		}
+
+		assertEquals(report.getDocumentCount(), 21);
+		assertEquals(report.getFailureCount(), 1);
+		assertTrue(report.getOutcomes().get(3).getError() instanceof UncheckedIOException);
+		for (int i = 0; i < 21; i++) {
+			BatchParser.Outcome<Integer> outcome = report.getOutcomes().get(i);
+			assertEquals(outcome.getIndex(), i);
+			if (i != 3) {
+				assertEquals(outcome.getLength(), Files.size(files.get(i)));
+			}
+		}
+		assertEquals(report.getOutcomes().get(20).getValue().intValue(), 1 + 19 * 10);
+		assertEquals(handled.size(), 20);
+		for (int i = 1; i < handled.size(); i++) {
+			assertTrue(handled.get(i - 1) > handled.get(i), "largest file first");
+		}
+
+		for (Path file : files) {
+			Files.deleteIfExists(file);
+		}
+		Files.delete(directory);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,381 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.Map;
+
+// Same readNext() contract as Parser, but works on UTF-8 bytes without decoding them up front.
+// Markup is recognized by comparing ASCII bytes, and the stack only records where names, attributes
+// and data fragments are; they are decoded when the caller asks for the current element.
+// Offsets reported by getCurrInputIdx() are byte offsets.
+public class ByteParser {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private ByteBuffer input;
+	private int inputLength;
+	private int currInputIdx;
+	private Frame[] stack; // frames are reused, so a steady-state parse allocates nothing per element
+	private int depth;
+	private StringBuilder scratch; // reused when decoding text that contains references
+	private EntityDecoder entities; // names registered on it must be ASCII
+	private char[] reference; // the bytes of one reference, widened for the decoder
+
+	// raw regions of an open element, as offsets into the input
+	private static class Frame {
+		int nameStart;
+		int nameEnd;
+		int attributesStart;
+		int attributesEnd;
+		int[] dataSegments = new int[4]; // start/end pairs of data fragments, trailing whitespace excluded
+		int dataSegmentCount;
+		String name; // decoded on demand
+		Element element; // materialized on demand
+		int materializedSegments; // data fragments already appended to element
+	}
+
+	public ByteParser(byte[] input) {
+		this(ByteBuffer.wrap(input));
+	}
+
+	public ByteParser(ByteBuffer input) {
+		this.input = input.slice().order(ByteOrder.LITTLE_ENDIAN); // byte i of a word is at bits 8*i
+		this.inputLength = this.input.limit();
+		this.currInputIdx = 0;
+		this.stack = new Frame[16];
+		this.depth = 0;
+		this.scratch = new StringBuilder();
+		this.entities = EntityDecoder.PREDEFINED;
+		this.reference = new char[32];
+	}
+
+	public Parser.NextInputType readNext() {
+		if (!hasMoreInput()) {
+			throw new StringIndexOutOfBoundsException("No input left to read");
+		}
+
+		if (currByte() == '<' && nextByte() == '?') { // detect prolog, only appears at beginning of file
+			consumeProlog();
+		}
+
+		consumeWhitespace(); // strip leading whitespace
+		consumeComment();
+		consumeWhitespace();
+
+		if (currByte() == '<' && nextByte() == '/') { // detect closing tag
+			return readClosingTag();
+		} else if (currByte() == '<' && nextByte() != '!') { // detect element
+			return readNextElement();
+		}
+		// else, in between tags there is data belonging to the current element
+		if (depth == 0) {
+			throw new EmptyStackException();
+		}
+		return readData(stack[depth - 1]);
+	}
+
+	private Parser.NextInputType readNextElement() {
+		currInputIdx++; // consume '<'
+
+		int nameStart = currInputIdx;
+		while (currByte() != '>' && currByte() != ' ' && currByte() != '/') { // consume element name
+			currInputIdx++;
+		}
+		int nameEnd = currInputIdx;
+
+		consumeWhitespace();
+		int attributesStart = currInputIdx;
+		if (currByte() != '>' && currByte() != '/') {
+			skipAttributesList();
+		}
+		int attributesEnd = currInputIdx;
+
+		Frame frame = null;
+		if (currByte() == '>') {
+			currInputIdx++; // consume '>'
+			// only push if there will be a separate closing tag, not within the opening tag
+			frame = push(nameStart, nameEnd, attributesStart, attributesEnd);
+		}
+
+		if (currByte() == '/' && nextByte() == '>') {
+			currInputIdx += 2; // consume "/>"
+			return Parser.NextInputType.ALT_CLOSING;
+		}
+
+		consumeComment();
+		consumeWhitespace();
+
+		if (currByte() == '<' && nextByte() != '/' && nextByte() != '!') { // detect child element
+			return Parser.NextInputType.ELEMENT;
+		} else if (currByte() == '<' && nextByte() == '/') { // detect closing tag
+			return Parser.NextInputType.CLOSING_TAG;
+		}
+		// read data and update element
+		return readData(frame);
+	}
+
+	private Parser.NextInputType readClosingTag() {
+		if (depth == 0) {
+			throw new EmptyStackException();
+		}
+		depth--;
+
+		skipTo('>');
+		currInputIdx++; // consume '>'
+		return Parser.NextInputType.CLOSING_TAG;
+	}
+
+	// escaped entities never contain '<', so the fragment ends at the next '<' and is decoded later
+	private Parser.NextInputType readData(Frame frame) {
+		int start = currInputIdx;
+		skipTo('<');
+		int end = currInputIdx;
+		while (end > start && isWhitespace(input.get(end - 1))) {
+			end--;
+		}
+
+		if (frame.dataSegmentCount * 2 == frame.dataSegments.length) {
+			frame.dataSegments = Arrays.copyOf(frame.dataSegments, frame.dataSegments.length * 2);
+		}
+		frame.dataSegments[frame.dataSegmentCount * 2] = start;
+		frame.dataSegments[frame.dataSegmentCount * 2 + 1] = end;
+		frame.dataSegmentCount++;
+		return Parser.NextInputType.DATA;
+	}
+
+	// moves past the attributes without decoding them; quoted values may contain '>' and '/'
+	private void skipAttributesList() {
+		while (currByte() != '>' && currByte() != '/') {
+			skipTo('='); // consume attribute name
+			currInputIdx++; // consume '='
+			consumeWhitespace();
+			currInputIdx++; // consume '"'
+			skipTo('"'); // consume attribute value
+			currInputIdx++; // consume '"'
+			consumeWhitespace();
+		}
+	}
+
+	private Frame push(int nameStart, int nameEnd, int attributesStart, int attributesEnd) {
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+		Frame frame = stack[depth];
+		if (frame == null) {
+			frame = new Frame();
+			stack[depth] = frame;
+		}
+		frame.nameStart = nameStart;
+		frame.nameEnd = nameEnd;
+		frame.attributesStart = attributesStart;
+		frame.attributesEnd = attributesEnd;
+		frame.dataSegmentCount = 0;
+		frame.name = null;
+		frame.element = null;
+		frame.materializedSegments = 0;
+		depth++;
+		return frame;
+	}
+
+	private void consumeWhitespace() {
+		while (isWhitespace(currByte())) {
+			currInputIdx++;
+		}
+	}
+
+	private void consumeProlog() {
+		currInputIdx += 2; // consume "<?"
+		while (currByte() != '?' || nextByte() != '>') {
+			currInputIdx++;
+		}
+		currInputIdx += 2; // consume "?>"
+	}
+
+	private void consumeComment() {
+		if (currByte() == '<' && nextByte() == '!') { // detect comment opening
+			currInputIdx += 4; // consume "<!--"
+			skipTo('-');
+			currInputIdx++; // consume '-'
+			if (currByte() == '-' && nextByte() == '>') { // detect comment closing
+				currInputIdx += 2; // consume "->"
+			}
+		}
+	}
+
+	// only ASCII whitespace is recognized; every byte of a multi-byte UTF-8 sequence is negative
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F);
+	}
+
+	private byte currByte() {
+		if (currInputIdx >= inputLength) {
+			throw new StringIndexOutOfBoundsException("Tried to access byte beyond input length");
+		}
+		return input.get(currInputIdx);
+	}
+
+	private byte nextByte() {
+		if (currInputIdx + 1 >= inputLength) {
+			throw new StringIndexOutOfBoundsException("Tried to peek beyond input length");
+		}
+		return input.get(currInputIdx + 1);
+	}
+
+	private String decode(int start, int end) {
+		if (input.hasArray()) {
+			return new String(input.array(), input.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[end - start];
+		input.get(start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// decodes a data fragment or attribute value, replacing the references the decoder knows
+	private String decodeText(int start, int end) {
+		int amp = indexOf('&', start, end);
+		if (amp < 0) {
+			return decode(start, end);
+		}
+
+		scratch.setLength(0);
+		while (amp >= 0) {
+			scratch.append(decode(start, amp));
+			// references are ASCII, so their bytes can be handed to the decoder as chars
+			int length = Math.min(end - amp, entities.getMaxReferenceLength());
+			if (reference.length < length) {
+				reference = new char[length];
+			}
+			for (int i = 0; i < length; i++) {
+				reference[i] = (char) (input.get(amp + i) & 0xFF);
+			}
+			int next = entities.decode(reference, 0, length, scratch);
+			if (next < 0) { // a '&' that starts no known reference is kept as is
+				scratch.append('&');
+				start = amp + 1;
+			} else {
+				start = amp + next;
+			}
+			amp = indexOf('&', start, end);
+		}
+		scratch.append(decode(start, end));
+		return scratch.toString();
+	}
+
+	private void skipTo(char c) {
+		int idx = indexOf(c, currInputIdx, inputLength);
+		if (idx < 0) {
+			currInputIdx = inputLength;
+			throw new StringIndexOutOfBoundsException("Tried to access byte beyond input length");
+		}
+		currInputIdx = idx;
+	}
+
+	// Looks at 8 bytes per step (SWAR): after xoring with the wanted byte repeated, a matching byte is zero,
+	// and (w - 0x01..) & ~w & 0x80.. sets the high bit of the lowest zero byte first. The remaining
+	// tail is scanned one byte at a time.
+	private int indexOf(char c, int start, int end) {
+		long pattern = ONES * c;
+		int idx = start;
+		for (; idx + Long.BYTES <= end; idx += Long.BYTES) {
+			long word = input.getLong(idx) ^ pattern;
+			long found = (word - ONES) & ~word & HIGH_BITS;
+			if (found != 0) {
+				return idx + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+		for (; idx < end; idx++) {
+			if (input.get(idx) == c) {
+				return idx;
+			}
+		}
+		return -1;
+	}
+
+	private String getName(Frame frame) {
+		if (frame.name == null) {
+			frame.name = decode(frame.nameStart, frame.nameEnd);
+		}
+		return frame.name;
+	}
+
+	private Element materialize(Frame frame) {
+		if (frame.element == null) {
+			frame.element = new Element(getName(frame));
+			readAttributes(frame);
+		}
+		while (frame.materializedSegments < frame.dataSegmentCount) {
+			int segment = frame.materializedSegments * 2;
+			frame.element.appendToData(decodeText(frame.dataSegments[segment], frame.dataSegments[segment + 1]));
+			frame.materializedSegments++;
+		}
+		return frame.element;
+	}
+
+	private void readAttributes(Frame frame) {
+		int idx = frame.attributesStart;
+		while (idx < frame.attributesEnd) {
+			int keyStart = idx;
+			int equals = indexOf('=', idx, frame.attributesEnd);
+			int keyEnd = equals;
+			while (keyEnd > keyStart && isWhitespace(input.get(keyEnd - 1))) {
+				keyEnd--;
+			}
+			int valueStart = indexOf('"', equals, frame.attributesEnd) + 1;
+			int valueEnd = indexOf('"', valueStart, frame.attributesEnd);
+			frame.element.addAttribute(decode(keyStart, keyEnd), decodeText(valueStart, valueEnd));
+
+			idx = valueEnd + 1;
+			while (idx < frame.attributesEnd && isWhitespace(input.get(idx))) {
+				idx++;
+			}
+		}
+	}
+
+	public EntityDecoder getEntityDecoder() {
+		return entities;
+	}
+
+	public void setEntityDecoder(EntityDecoder entities) {
+		this.entities = entities;
+	}
+
+	public boolean hasMoreInput() {
+		return currInputIdx < inputLength;
+	}
+
+	public int getCurrInputIdx() {
+		return this.currInputIdx;
+	}
+
+	public boolean hasCurrentElement() {
+		return depth > 0;
+	}
+
+	public Element getCurrentElement() {
+		if (!hasCurrentElement()) {
+			throw new EmptyStackException();
+		}
+		return materialize(stack[depth - 1]);
+	}
+
+	public Map<String, String> getCurrentAttributes() {
+		return getCurrentElement().getAttributes();
+	}
+
+	public String getCurrentData() {
+		return getCurrentElement().getData();
+	}
+
+	public String getPath() {
+		StringBuilder result = new StringBuilder("/");
+		for (int i = 0; i < depth; i++) {
+			if (i > 0) {
+				result.append('/');
+			}
+			result.append(getName(stack[i]));
+		}
+		return result.toString();
+	}
+}
\ No newline at end of file
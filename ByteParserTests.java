@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ByteParserTests {
+
+	private ByteParser sut;
+	private String input;
+	
+	@Test
+	public void read_two_elements_with_one_a_child_of_the_other() {
+		input = "<root><name>Theo Steiner</name></root>";
+		sut = new ByteParser(input.getBytes(StandardCharsets.UTF_8));
+		
+		assertEquals(sut.readNext(), Parser.NextInputType.ELEMENT);
+		assertEquals(getTopName(), "root");
+		assertEquals(sut.getPath(), "/root");
+		
+		assertEquals(sut.readNext(), Parser.NextInputType.DATA);
+		assertEquals(getTopName(), "name");
+		assertEquals(sut.getCurrentData(), "Theo Steiner");
+		assertEquals(sut.getPath(), "/root/name");
+		
+		sut.readNext();
+		assertEquals(sut.getPath(), "/root");
+		
+		sut.readNext();
+		
+		assertFalse(sut.hasCurrentElement());
+		assertEquals(sut.getPath(), "/");
+		assertEquals(sut.getCurrInputIdx(), input.length());
+	}
+	
+	@Test
+	public void read_attributes_and_data_with_escaped_entities_and_multibyte_chars() {
+		input = "<?xml version=\"1.0\"?><order id=\"1&amp;1&lt;&gt;1&quot;&apos;\" note=\"caf\u00e9 /> ok\">"
+			  + "<!-- test -->Ren\u00e9 &amp; \u20ac  </order>";
+		sut = new ByteParser(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+		
+		sut.readNext();
+		Element expected = new Element("order");
+		expected.addAttribute("id", "1&1<>1\"'");
+		expected.addAttribute("note", "caf\u00e9 /> ok");
+		
+		assertEquals(getTopName(), expected.getName());
+		assertEquals(sut.getCurrentAttributes().toString(), expected.getAttributes().toString());
+		assertEquals(sut.getCurrentData(), "Ren\u00e9 & \u20ac");
+	}
+	
+	@Test
+	public void read_character_references_and_registered_entities() {
+		input = "<p note=\"&#x20AC;&#8364;\">&copy; &#169; &unknown; a&b</p>";
+		sut = new ByteParser(input.getBytes(StandardCharsets.UTF_8));
+		EntityDecoder entities = new EntityDecoder();
+		entities.register("copy", "\u00a9");
+		sut.setEntityDecoder(entities);
+		
+		sut.readNext();
+		assertEquals(sut.getCurrentAttributes().get("note"), "\u20ac\u20ac");
+		assertEquals(sut.getCurrentData(), "\u00a9 \u00a9 &unknown; a&b");
+	}
+	
+	@Test
+	public void read_multiple_elements_with_data_scattered() {
+		input = "<text>hello <keyword> world </keyword> what<emph> in </emph> the</text>";
+		sut = new ByteParser(input.getBytes(StandardCharsets.UTF_8));
+		
+		sut.readNext();
+		assertEquals(sut.getCurrentData(), "hello");
+		
+		sut.readNext();
+		sut.readNext();
+		sut.readNext();
+		assertEquals(sut.getCurrentData(), "hellowhat");
+		
+		sut.readNext();
+		assertEquals(sut.getCurrentData(), "in");
+		
+		sut.readNext();
+		sut.readNext();
+		assertEquals(sut.getCurrentData(), "hellowhatthe");
+		
+		sut.readNext();
+		assertFalse(sut.hasMoreInput());
+	}
+	
+	@Test
+	public void read_one_element_with_alternate_closing_tag_and_attributes() {
+		input = "<order id=\"1111\"/>";
+		sut = new ByteParser(input.getBytes(StandardCharsets.UTF_8));
+		
+		assertEquals(sut.readNext(), Parser.NextInputType.ALT_CLOSING);
+		
+		assertFalse(sut.hasCurrentElement());
+		assertEquals(sut.getPath(), "/");
+		assertEquals(sut.getCurrInputIdx(), input.length());
+	}
+	
+	private String getTopName() {
+		return sut.getCurrentElement().getName();
+	}
+}
\ No newline at end of file
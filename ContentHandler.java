@@ -0,0 +1,33 @@
+// Receives the events of a document from PushParser. Character data, comments and attribute lists
+// are given as a region of a buffer that is shared between events: it is only valid during the
+// call, and must be copied to be kept.
+public interface ContentHandler {
+	
+	// attributes are the raw attribute list of the start tag, empty when there is none
+	void startElement(String name, int nameId, char[] buffer, int attributesOffset, int attributesLength);
+	
+	void endElement(String name, int nameId);
+	
+	void characters(char[] buffer, int offset, int length);
+	
+	default void comment(char[] buffer, int offset, int length) {
+	}
+	
+	// before the first event, with the decoder of the parser for attribute values
+	default void startDocument(EntityDecoder entities) {
+	}
+	
+	default void endDocument() {
+	}
+	
+	// looks up an attribute in the list given to startElement, decoding only its value with the
+	// predefined entities and character references
+	static String attribute(char[] buffer, int attributesOffset, int attributesLength, String key) {
+		return attribute(buffer, attributesOffset, attributesLength, key, EntityDecoder.PREDEFINED);
+	}
+	
+	// same, with the entities registered on the parser as given to startDocument
+	static String attribute(char[] buffer, int attributesOffset, int attributesLength, String key, EntityDecoder entities) {
+		return Element.findAttribute(buffer, attributesOffset, attributesOffset + attributesLength, key, entities);
+	}
+}
\ No newline at end of file
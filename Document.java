@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Object tree of a whole document, built in a single pass of the parser. Nodes are stored as
+// parallel int arrays indexed by node id instead of one object per element: names are ids in
+// the parser's symbol table, and data and attribute values live in one shared char pool.
+// Node is a small view over an id, created on demand.
+public class Document {
+
+	private static final int NONE = -1;
+
+	// per node
+	private int[] parent;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private int[] nameId;
+	private int[] textOffset;
+	private int[] textLength;
+	private int[] attributeStart;
+	private int[] attributeCount;
+	private int nodeCount;
+
+	// per attribute, the attributes of a node being contiguous
+	private int[] attributeNameId;
+	private int[] attributeValueOffset;
+	private int[] attributeValueLength;
+	private int attributeTotal;
+
+	private char[] text;
+	private int textTotal;
+
+	private SymbolTable symbols;
+
+	private Document(SymbolTable symbols) {
+		this.parent = new int[64];
+		this.firstChild = new int[64];
+		this.nextSibling = new int[64];
+		this.nameId = new int[64];
+		this.textOffset = new int[64];
+		this.textLength = new int[64];
+		this.attributeStart = new int[64];
+		this.attributeCount = new int[64];
+		this.attributeNameId = new int[64];
+		this.attributeValueOffset = new int[64];
+		this.attributeValueLength = new int[64];
+		this.text = new char[1024];
+		this.symbols = symbols;
+	}
+
+	public static Document parse(String input) {
+		return parse(new Parser(input));
+	}
+
+	// reads the parser's input up to the end of the root element
+	public static Document parse(Parser parser) {
+		Builder builder = new Document(parser.getSymbolTable()).new Builder();
+		parser.setListener(builder);
+		try {
+			while (parser.hasMoreInput() && !builder.isComplete()) {
+				parser.readNext();
+			}
+		} finally {
+			parser.setListener(null);
+		}
+		return builder.finish();
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public Node getRoot() {
+		return nodeCount == 0 ? null : new Node(0);
+	}
+
+	public Node getNode(int id) {
+		if (id < 0 || id >= nodeCount) {
+			throw new IndexOutOfBoundsException("No node " + id);
+		}
+		return new Node(id);
+	}
+
+	private class Builder implements ElementListener {
+		private int[] open = new int[16]; // ids of the elements not yet closed
+		private int[] lastChild = new int[16]; // last child added to each open element
+		private int depth;
+		private int lastTopLevel = NONE;
+
+		@Override
+		public void elementStarted(Element elt) {
+			int id = addNode(depth == 0 ? NONE : open[depth - 1], elt);
+			if (depth == 0) {
+				if (lastTopLevel != NONE) {
+					nextSibling[lastTopLevel] = id;
+				}
+				lastTopLevel = id;
+			} else if (lastChild[depth - 1] == NONE) {
+				firstChild[open[depth - 1]] = id;
+				lastChild[depth - 1] = id;
+			} else {
+				nextSibling[lastChild[depth - 1]] = id;
+				lastChild[depth - 1] = id;
+			}
+
+			if (depth == open.length) {
+				open = Arrays.copyOf(open, depth * 2);
+				lastChild = Arrays.copyOf(lastChild, depth * 2);
+			}
+			open[depth] = id;
+			lastChild[depth] = NONE;
+			depth++;
+		}
+
+		@Override
+		public void elementEnded(Element elt) {
+			depth--;
+			int id = open[depth];
+			String data = elt.getData();
+			textOffset[id] = appendText(data);
+			textLength[id] = data.length();
+		}
+
+		boolean isComplete() {
+			return nodeCount > 0 && depth == 0;
+		}
+
+		Document finish() {
+			// trim the arrays to the size of the document
+			parent = Arrays.copyOf(parent, nodeCount);
+			firstChild = Arrays.copyOf(firstChild, nodeCount);
+			nextSibling = Arrays.copyOf(nextSibling, nodeCount);
+			nameId = Arrays.copyOf(nameId, nodeCount);
+			textOffset = Arrays.copyOf(textOffset, nodeCount);
+			textLength = Arrays.copyOf(textLength, nodeCount);
+			attributeStart = Arrays.copyOf(attributeStart, nodeCount);
+			attributeCount = Arrays.copyOf(attributeCount, nodeCount);
+			attributeNameId = Arrays.copyOf(attributeNameId, attributeTotal);
+			attributeValueOffset = Arrays.copyOf(attributeValueOffset, attributeTotal);
+			attributeValueLength = Arrays.copyOf(attributeValueLength, attributeTotal);
+			text = Arrays.copyOf(text, textTotal);
+			return Document.this;
+		}
+	}
+
+	private int addNode(int parentId, Element elt) {
+		if (nodeCount == parent.length) {
+			int capacity = nodeCount * 2;
+			parent = Arrays.copyOf(parent, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			nameId = Arrays.copyOf(nameId, capacity);
+			textOffset = Arrays.copyOf(textOffset, capacity);
+			textLength = Arrays.copyOf(textLength, capacity);
+			attributeStart = Arrays.copyOf(attributeStart, capacity);
+			attributeCount = Arrays.copyOf(attributeCount, capacity);
+		}
+		int id = nodeCount++;
+		parent[id] = parentId;
+		firstChild[id] = NONE;
+		nextSibling[id] = NONE;
+		nameId[id] = elt.getNameId() >= 0 ? elt.getNameId() : symbols.id(elt.getName());
+		attributeStart[id] = attributeTotal;
+		attributeCount[id] = elt.getAttributeCount();
+		for (int i = 0; i < attributeCount[id]; i++) {
+			addAttribute(elt.getAttributeKey(i), elt.getAttributeValue(i));
+		}
+		return id;
+	}
+
+	private void addAttribute(String key, String value) {
+		if (attributeTotal == attributeNameId.length) {
+			int capacity = attributeTotal * 2;
+			attributeNameId = Arrays.copyOf(attributeNameId, capacity);
+			attributeValueOffset = Arrays.copyOf(attributeValueOffset, capacity);
+			attributeValueLength = Arrays.copyOf(attributeValueLength, capacity);
+		}
+		attributeNameId[attributeTotal] = symbols.id(key);
+		attributeValueOffset[attributeTotal] = appendText(value);
+		attributeValueLength[attributeTotal] = value.length();
+		attributeTotal++;
+	}
+
+	private int appendText(String s) {
+		if (textTotal + s.length() > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textTotal + s.length()));
+		}
+		s.getChars(0, s.length(), text, textTotal);
+		int offset = textTotal;
+		textTotal += s.length();
+		return offset;
+	}
+
+	// Element-like view of one node; it holds no data of its own
+	public class Node {
+		private int id;
+
+		private Node(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getName() {
+			return symbols.symbol(nameId[id]);
+		}
+
+		public String getData() {
+			return new String(text, textOffset[id], textLength[id]);
+		}
+
+		public String getAttribute(String key) {
+			int keyId = symbols.lookup(key);
+			if (keyId < 0) {
+				return null;
+			}
+			int end = attributeStart[id] + attributeCount[id];
+			for (int i = attributeStart[id]; i < end; i++) {
+				if (attributeNameId[i] == keyId) {
+					return new String(text, attributeValueOffset[i], attributeValueLength[i]);
+				}
+			}
+			return null;
+		}
+
+		public Map<String, String> getAttributes() {
+			Map<String, String> attributes = new LinkedHashMap<String, String>();
+			int end = attributeStart[id] + attributeCount[id];
+			for (int i = attributeStart[id]; i < end; i++) {
+				attributes.put(symbols.symbol(attributeNameId[i]), new String(text, attributeValueOffset[i], attributeValueLength[i]));
+			}
+			return attributes;
+		}
+
+		public Node getParent() {
+			return parent[id] == NONE ? null : new Node(parent[id]);
+		}
+
+		public Node getFirstChild() {
+			return firstChild[id] == NONE ? null : new Node(firstChild[id]);
+		}
+
+		public Node getNextSibling() {
+			return nextSibling[id] == NONE ? null : new Node(nextSibling[id]);
+		}
+
+		public List<Node> getChildren() {
+			List<Node> children = new ArrayList<Node>();
+			for (int child = firstChild[id]; child != NONE; child = nextSibling[child]) {
+				children.add(new Node(child));
+			}
+			return children;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Node && ((Node) o).id == id && ((Node) o).getDocument() == Document.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+
+		private Document getDocument() {
+			return Document.this;
+		}
+	}
+}
\ No newline at end of file
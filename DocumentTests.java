@@ -0,0 +1,50 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+public class DocumentTests {
+
+	private Document sut;
+	private String input;
+	
+	@Test
+	public void tree_links_children_and_siblings_in_document_order() {
+		input = "<root><order id=\"1111\"><amount>150</amount></order><order id=\"222\"/>"
+			  + "<order id=\"333\"><amount>2000</amount></order></root>\n";
+		sut = Document.parse(new Parser(new StringReader(input)));
+		
+		Document.Node root = sut.getRoot();
+		assertEquals(sut.getNodeCount(), 6);
+		assertEquals(root.getName(), "root");
+		assertNull(root.getParent());
+		
+		List<Document.Node> orders = root.getChildren();
+		assertEquals(orders.size(), 3);
+		assertEquals(orders.get(0).getAttribute("id"), "1111");
+		assertEquals(orders.get(1).getAttribute("id"), "222");
+		assertNull(orders.get(1).getFirstChild());
+		assertEquals(orders.get(2).getFirstChild().getData(), "2000");
+		assertEquals(orders.get(2).getFirstChild().getParent(), orders.get(2));
+		assertNull(orders.get(2).getNextSibling());
+	}
+	
+	@Test
+	public void data_and_attributes_match_element() {
+		input = "<text lang=\"en\" note=\"a &amp; b\">hello <keyword> world </keyword> what</text>";
+		sut = Document.parse(input);
+		
+		Element expected = new Element("text");
+		expected.addAttribute("lang", "en");
+		expected.addAttribute("note", "a & b");
+		expected.appendToData("hellowhat");
+		
+		Document.Node text = sut.getRoot();
+		assertEquals(text.getData(), expected.getData());
+		assertEquals(text.getAttributes(), expected.getAttributes());
+		assertNull(text.getAttribute("missing"));
+		assertEquals(text.getFirstChild().getName(), "keyword");
+		assertEquals(text.getFirstChild().getData(), "world");
+	}
+}
\ No newline at end of file
@@ -1,35 +1,588 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 public class Element {
 	
+	private static final int LINEAR_SCAN_LIMIT = 8; // more attributes than this are looked up through slots
+	
 	private String name;
-	private Map<String, String> attributes;
-	private String data;
+	private int nameId; // id in the parser's symbol table, -1 for elements not created by a parser
+	// Attributes in start tag order, in two arrays scanned linearly: most elements have a handful. Past
+	// LINEAR_SCAN_LIMIT, keys are also hashed into an open addressing table of slots.
+	private String[] keys;
+	private String[] values;
+	private int attributeCount;
+	private int[] slots; // index + 1 of the attribute hashed to each slot, 0 when empty; null until needed
+	private AttributeMap attributeMap; // Map view, made on first use
+	// attribute list as it appeared in the start tag, parsed only when the attributes are asked for
+	private char[] rawAttributes;
+	private int rawAttributesStart;
+	private int rawAttributesEnd;
+	private SymbolTable symbols; // interns the attribute keys
+	private EntityDecoder entities; // decodes the attribute values
+	// text fragments in document order; the concatenation is only built by getData(), once
+	private String data; // the whole data, null when fragments were appended since it was built
+	private String[] segments; // created when a second fragment is appended
+	private int segmentCount;
+	private boolean dataIgnored; // set when nobody will read the data, which is then not kept
+	// Elements recycled by a parser keep their text in a buffer that is reused from one element to the
+	// next, with the end of each fragment, so that no String is made unless the data is asked for
+	private StringBuilder buffer; // null for elements that are not recycled
+	private int[] segmentEnds;
+	private char[] rawBuffer; // copy of the attribute list when the parser's window slides
 	
 	public Element(String name) {
+		this(name, -1);
+	}
+	
+	Element(String name, int nameId) {
+		this.name = name;
+		this.nameId = nameId;
+		this.data = "";
+	}
+	
+	// detached copy of an element, with its attributes and data, for keeping an element the parser recycles
+	public Element copy() {
+		Element copy = new Element(this.name, this.nameId);
+		for (int i = 0; i < getAttributeCount(); i++) {
+			copy.putAttribute(this.keys[i], this.values[i]);
+		}
+		for (String segment : getDataSegments()) {
+			copy.appendToData(segment);
+		}
+		copy.dataIgnored = this.dataIgnored;
+		return copy;
+	}
+	
+	// empties a recycled element for a new start tag, keeping its arrays and buffers
+	void recycle(String name, int nameId) {
 		this.name = name;
-		this.attributes = new HashMap<String, String>();
+		this.nameId = nameId;
+		clearAttributes();
+		this.rawAttributes = null;
 		this.data = "";
+		if (this.segments != null) {
+			Arrays.fill(this.segments, 0, this.segmentCount, null);
+		}
+		this.segmentCount = 0;
+		this.dataIgnored = false;
+		if (this.buffer == null) {
+			this.buffer = new StringBuilder();
+			this.segmentEnds = new int[4];
+		}
+		this.buffer.setLength(0);
+	}
+	
+	boolean isRecycled() {
+		return this.buffer != null;
 	}
 	
 	public String getName() {
 		return this.name;
 	}
 	
+	public int getNameId() {
+		return this.nameId;
+	}
+	
+	// live view of the attributes, in start tag order
 	public Map<String, String> getAttributes() {
-		return this.attributes;
+		if (this.rawAttributes != null) {
+			parseRawAttributes();
+		}
+		if (this.attributeMap == null) {
+			this.attributeMap = new AttributeMap();
+		}
+		return this.attributeMap;
+	}
+	
+	// the attributes by position, without the Map view
+	public int getAttributeCount() {
+		if (this.rawAttributes != null) {
+			parseRawAttributes();
+		}
+		return this.attributeCount;
+	}
+	
+	public String getAttributeKey(int index) {
+		checkAttributeIndex(index);
+		return this.keys[index];
+	}
+	
+	public String getAttributeValue(int index) {
+		checkAttributeIndex(index);
+		return this.values[index];
+	}
+	
+	private void checkAttributeIndex(int index) {
+		if (index < 0 || index >= getAttributeCount()) {
+			throw new IndexOutOfBoundsException("No attribute " + index);
+		}
+	}
+	
+	// looks the key up in the unparsed attribute list if it has not been parsed yet
+	public String getAttribute(String key) {
+		if (this.rawAttributes == null) {
+			int index = indexOf(key);
+			return index < 0 ? null : this.values[index];
+		}
+		return findAttribute(this.rawAttributes, this.rawAttributesStart, this.rawAttributesEnd, key, this.entities);
+	}
+	
+	// looks the key up in the attribute list raw[start, end) of a start tag, decoding only its value
+	static String findAttribute(char[] raw, int start, int end, String key, EntityDecoder entities) {
+		int idx = start;
+		while (idx < end) {
+			int keyStart = idx;
+			while (raw[idx] != '=') {
+				idx++;
+			}
+			boolean matches = isKey(raw, keyStart, trimTrailingWhitespace(raw, keyStart, idx), key);
+			int valueStart = skipToValue(raw, idx);
+			int valueEnd = valueStart;
+			while (raw[valueEnd] != '"') {
+				valueEnd++;
+			}
+			if (matches) {
+				return decodeValue(raw, valueStart, valueEnd, entities);
+			}
+			idx = skipWhitespace(raw, valueEnd + 1, end);
+		}
+		return null;
+	}
+	
+	public boolean hasAttributes() {
+		return this.rawAttributes != null || this.attributeCount > 0;
 	}
 	
 	public String getData() {
+		if (this.data == null && this.buffer != null) {
+			this.data = this.buffer.toString();
+		} else if (this.data == null) {
+			int length = 0;
+			for (int i = 0; i < this.segmentCount; i++) {
+				length += this.segments[i].length();
+			}
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < this.segmentCount; i++) {
+				sb.append(this.segments[i]);
+			}
+			this.data = sb.toString();
+		}
 		return this.data;
 	}
 	
+	// the fragments of text between the children of the element, without concatenating them
+	public List<String> getDataSegments() {
+		if (this.buffer != null) {
+			String[] fragments = new String[this.segmentCount];
+			for (int i = 0; i < this.segmentCount; i++) {
+				fragments[i] = this.buffer.substring(i == 0 ? 0 : this.segmentEnds[i - 1], this.segmentEnds[i]);
+			}
+			return Collections.unmodifiableList(Arrays.asList(fragments));
+		}
+		if (this.segments == null) {
+			return this.segmentCount == 0 ? Collections.emptyList() : Collections.singletonList(this.data);
+		}
+		return Collections.unmodifiableList(Arrays.asList(this.segments).subList(0, this.segmentCount));
+	}
+	
 	public void appendToData(String data) {
-		this.data += data;
+		if (data.isEmpty()) {
+			return;
+		}
+		if (this.buffer != null) {
+			this.buffer.append(data);
+			endDataSegment();
+			return;
+		}
+		if (this.segmentCount == 0) {
+			this.data = data;
+			this.segmentCount = 1;
+			return;
+		}
+		if (this.segments == null) {
+			this.segments = new String[4];
+			this.segments[0] = this.data;
+		} else if (this.segmentCount == this.segments.length) {
+			this.segments = Arrays.copyOf(this.segments, this.segmentCount * 2);
+		}
+		this.segments[this.segmentCount++] = data;
+		this.data = null;
+	}
+	
+	// for recycled elements, the parser appends a fragment to the buffer, then ends it here; an empty
+	// fragment is dropped
+	StringBuilder getDataBuffer() {
+		return this.buffer;
+	}
+	
+	void endDataSegment() {
+		int end = this.buffer.length();
+		if (end == (this.segmentCount == 0 ? 0 : this.segmentEnds[this.segmentCount - 1])) {
+			return;
+		}
+		if (this.segmentCount == this.segmentEnds.length) {
+			this.segmentEnds = Arrays.copyOf(this.segmentEnds, this.segmentCount * 2);
+		}
+		this.segmentEnds[this.segmentCount++] = end;
+		this.data = null;
+	}
+	
+	void ignoreData() {
+		this.dataIgnored = true;
+	}
+	
+	boolean isDataIgnored() {
+		return this.dataIgnored;
 	}
 	
 	public String addAttribute(String key, String value) {
-		return this.attributes.put(key, value);
+		if (this.rawAttributes != null) {
+			parseRawAttributes();
+		}
+		return putAttribute(key, value);
+	}
+	
+	private int indexOf(Object key) {
+		if (this.slots == null) {
+			for (int i = 0; i < this.attributeCount; i++) {
+				if (this.keys[i] == key || this.keys[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int mask = this.slots.length - 1;
+		for (int slot = key.hashCode() & mask; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+			int index = this.slots[slot] - 1;
+			if (this.keys[index] == key || this.keys[index].equals(key)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	// returns the previous value of the key, null for a new key
+	private String putAttribute(String key, String value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("Attribute keys and values cannot be null");
+		}
+		int index = indexOf(key);
+		if (index >= 0) {
+			String previous = this.values[index];
+			this.values[index] = value;
+			return previous;
+		}
+		if (this.keys == null) {
+			this.keys = new String[4];
+			this.values = new String[4];
+		} else if (this.attributeCount == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, this.attributeCount * 2);
+			this.values = Arrays.copyOf(this.values, this.attributeCount * 2);
+		}
+		this.keys[this.attributeCount] = key;
+		this.values[this.attributeCount] = value;
+		this.attributeCount++;
+		if (this.slots != null && this.attributeCount * 2 <= this.slots.length) {
+			addSlot(this.attributeCount - 1);
+		} else if (this.attributeCount > LINEAR_SCAN_LIMIT) {
+			rehash(this.attributeCount);
+		}
+		return null;
+	}
+	
+	// sizes the arrays, and the slots if needed, for that many more attributes at once
+	private void reserveAttributes(int more) {
+		int needed = this.attributeCount + more;
+		if (this.keys == null || this.keys.length < needed) {
+			int capacity = Math.max(needed, 4);
+			this.keys = this.keys == null ? new String[capacity] : Arrays.copyOf(this.keys, capacity);
+			this.values = this.values == null ? new String[capacity] : Arrays.copyOf(this.values, capacity);
+		}
+		if (needed > LINEAR_SCAN_LIMIT && (this.slots == null || needed * 2 > this.slots.length)) {
+			rehash(needed);
+		}
+	}
+	
+	private String removeAttribute(int index) {
+		String previous = this.values[index];
+		int moved = this.attributeCount - index - 1;
+		System.arraycopy(this.keys, index + 1, this.keys, index, moved);
+		System.arraycopy(this.values, index + 1, this.values, index, moved);
+		this.attributeCount--;
+		this.keys[this.attributeCount] = null;
+		this.values[this.attributeCount] = null;
+		if (this.slots != null) {
+			rehash(this.attributeCount); // the indexes after the removed attribute all moved
+		}
+		return previous;
+	}
+	
+	private void clearAttributes() {
+		if (this.attributeCount > 0) {
+			Arrays.fill(this.keys, 0, this.attributeCount, null);
+			Arrays.fill(this.values, 0, this.attributeCount, null);
+			this.attributeCount = 0;
+		}
+		if (this.slots != null) {
+			Arrays.fill(this.slots, 0);
+		}
+	}
+	
+	// sizes the slots for at most half of them to be used by that many attributes, and fills them again
+	private void rehash(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, LINEAR_SCAN_LIMIT) * 4 - 1);
+		if (this.slots == null || this.slots.length < capacity) {
+			this.slots = new int[capacity];
+		} else {
+			Arrays.fill(this.slots, 0);
+		}
+		for (int i = 0; i < this.attributeCount; i++) {
+			addSlot(i);
+		}
+	}
+	
+	private void addSlot(int index) {
+		int mask = this.slots.length - 1;
+		int slot = this.keys[index].hashCode() & mask;
+		while (this.slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.slots[slot] = index + 1;
+	}
+	
+	// raw[start, end) is the attribute list of the start tag, from the first key up to '>' or "/>";
+	// the array must not change afterwards
+	void setRawAttributes(char[] raw, int start, int end, SymbolTable symbols, EntityDecoder entities) {
+		this.rawAttributes = raw;
+		this.rawAttributesStart = start;
+		this.rawAttributesEnd = end;
+		this.symbols = symbols;
+		this.entities = entities;
+	}
+	
+	// same as setRawAttributes, for a recycled element whose copy of the list is reused
+	void copyRawAttributes(char[] raw, int start, int end, SymbolTable symbols, EntityDecoder entities) {
+		int length = end - start;
+		if (this.rawBuffer == null || this.rawBuffer.length < length) {
+			this.rawBuffer = new char[Math.max(length, 64)];
+		}
+		System.arraycopy(raw, start, this.rawBuffer, 0, length);
+		setRawAttributes(this.rawBuffer, 0, length, symbols, entities);
+	}
+	
+	private void parseRawAttributes() {
+		char[] raw = this.rawAttributes;
+		this.rawAttributes = null;
+		
+		int quotes = 0; // values never contain '"', so every attribute has exactly two
+		for (int i = this.rawAttributesStart; i < this.rawAttributesEnd; i++) {
+			if (raw[i] == '"') {
+				quotes++;
+			}
+		}
+		reserveAttributes(quotes / 2);
+		
+		int idx = this.rawAttributesStart;
+		while (idx < this.rawAttributesEnd) {
+			int keyStart = idx;
+			while (raw[idx] != '=') { // consume attribute name
+				idx++;
+			}
+			String key = this.symbols.intern(raw, keyStart, trimTrailingWhitespace(raw, keyStart, idx));
+			int valueStart = skipToValue(raw, idx);
+			int valueEnd = valueStart;
+			while (raw[valueEnd] != '"') { // consume attribute value
+				valueEnd++;
+			}
+			putAttribute(key, decodeValue(raw, valueStart, valueEnd, this.entities));
+			idx = skipWhitespace(raw, valueEnd + 1, this.rawAttributesEnd);
+		}
+	}
+	
+	// from the '=' after a key to the first char of the quoted value
+	private static int skipToValue(char[] raw, int idx) {
+		idx++; // consume '='
+		while (Character.isWhitespace(raw[idx])) {
+			idx++;
+		}
+		return idx + 1; // consume '"'
+	}
+	
+	private static int skipWhitespace(char[] raw, int idx, int end) {
+		while (idx < end && Character.isWhitespace(raw[idx])) {
+			idx++;
+		}
+		return idx;
+	}
+	
+	private static int trimTrailingWhitespace(char[] raw, int start, int end) {
+		while (end > start && Character.isWhitespace(raw[end - 1])) {
+			end--;
+		}
+		return end;
+	}
+	
+	private static boolean isKey(char[] raw, int start, int end, String key) {
+		if (end - start != key.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (raw[start + i] != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// replaces the references the parser's decoder knows, as the parser does in data
+	private static String decodeValue(char[] raw, int start, int end, EntityDecoder entities) {
+		int amp = start;
+		while (amp < end && raw[amp] != '&') {
+			amp++;
+		}
+		if (amp == end) {
+			return new String(raw, start, end - start);
+		}
+		
+		StringBuilder value = new StringBuilder(end - start);
+		entities.appendDecoded(raw, start, end, value);
+		return value.toString();
+	}
+	
+	// Map view over the attribute arrays; changes go both ways
+	private class AttributeMap extends AbstractMap<String, String> {
+		
+		@Override
+		public int size() {
+			return getAttributeCount();
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null; // values are never null
+		}
+		
+		@Override
+		public String get(Object key) {
+			if (key == null || getAttributeCount() == 0) {
+				return null;
+			}
+			int index = indexOf(key);
+			return index < 0 ? null : values[index];
+		}
+		
+		@Override
+		public String put(String key, String value) {
+			return addAttribute(key, value);
+		}
+		
+		@Override
+		public String remove(Object key) {
+			if (key == null || getAttributeCount() == 0) {
+				return null;
+			}
+			int index = indexOf(key);
+			return index < 0 ? null : removeAttribute(index);
+		}
+		
+		@Override
+		public void clear() {
+			rawAttributes = null;
+			clearAttributes();
+		}
+		
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public int size() {
+					return getAttributeCount();
+				}
+				
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					getAttributeCount(); // parses the raw attributes first
+					return new Iterator<Map.Entry<String, String>>() {
+						private int next;
+						private int last = -1;
+						
+						@Override
+						public boolean hasNext() {
+							return next < attributeCount;
+						}
+						
+						@Override
+						public Map.Entry<String, String> next() {
+							if (next >= attributeCount) {
+								throw new NoSuchElementException();
+							}
+							last = next++;
+							return new Attribute(last);
+						}
+						
+						@Override
+						public void remove() {
+							if (last < 0) {
+								throw new IllegalStateException();
+							}
+							removeAttribute(last);
+							next = last;
+							last = -1;
+						}
+					};
+				}
+			};
+		}
+	}
+	
+	private class Attribute implements Map.Entry<String, String> {
+		private int index;
+		
+		Attribute(int index) {
+			this.index = index;
+		}
+		
+		@Override
+		public String getKey() {
+			return keys[index];
+		}
+		
+		@Override
+		public String getValue() {
+			return values[index];
+		}
+		
+		@Override
+		public String setValue(String value) {
+			return putAttribute(keys[index], value);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return getKey().equals(entry.getKey()) && getValue().equals(entry.getValue());
+		}
+		
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ getValue().hashCode();
+		}
+		
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
 	}
 }
\ No newline at end of file
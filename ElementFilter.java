@@ -0,0 +1,6 @@
+// Consulted by Parser when an element starts, once its attributes are known. The content of an
+// element that is not accepted is skipped up to its closing tag without being parsed: no element,
+// data or event is produced for anything inside it, and readNext() returns as for "<element/>".
+public interface ElementFilter {
+	boolean accept(Element elt);
+}
\ No newline at end of file
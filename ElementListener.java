@@ -0,0 +1,6 @@
+// Notified by Parser as elements are opened and closed, including elements closed by "/>"
+// that never reach the stack. An element's data is complete when elementEnded is called.
+interface ElementListener {
+	void elementStarted(Element elt);
+	void elementEnded(Element elt);
+}
\ No newline at end of file
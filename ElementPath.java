@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+// Path of the open elements, kept up to date as elements are opened and closed instead of being
+// rebuilt on every call: the names are appended to one char buffer, and closing an element only
+// truncates the buffer back to where that element's name started. The path is readable as a
+// CharSequence without copying, as a String (built once per change of the path), or as the
+// symbol table ids of the names, outermost first.
+// It is also the parser's element stack: every depth holds the element, its name id and the path
+// length, in plain arrays that need no locking or boxing.
+public class ElementPath implements CharSequence {
+
+	private char[] chars; // "/a/b/c", always starting with '/'
+	private int length;
+	private int[] starts; // length of the buffer before each open element was appended
+	private int[] nameIds; // symbol table id of each open element
+	private Element[] elements; // null for the elements of an XmlCursor
+	private int depth;
+	private String string; // cached toString(), null when the path has changed since
+
+	ElementPath() {
+		this.chars = new char[64];
+		this.chars[0] = '/';
+		this.length = 1;
+		this.starts = new int[16];
+		this.nameIds = new int[16];
+		this.elements = new Element[16];
+		this.string = "/";
+	}
+
+	void push(Element elt, String name, int nameId) {
+		if (depth == starts.length) {
+			grow();
+		}
+		starts[depth] = length;
+		nameIds[depth] = nameId;
+		elements[depth] = elt;
+		depth++;
+
+		int needed = length + name.length() + 1;
+		if (needed > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, needed));
+		}
+		if (length > 1) { // the root path already ends with '/'
+			chars[length++] = '/';
+		}
+		name.getChars(0, name.length(), chars, length);
+		length += name.length();
+		string = null;
+	}
+
+	private void grow() {
+		starts = Arrays.copyOf(starts, depth * 2);
+		nameIds = Arrays.copyOf(nameIds, depth * 2);
+		elements = Arrays.copyOf(elements, depth * 2);
+	}
+
+	void clear() {
+		Arrays.fill(elements, 0, depth, null);
+		depth = 0;
+		length = 1;
+		string = "/";
+	}
+
+	// the caller checks that an element is open
+	Element pop() {
+		depth--;
+		length = starts[depth];
+		string = null;
+		Element elt = elements[depth];
+		elements[depth] = null;
+		return elt;
+	}
+
+	Element peek() {
+		return elements[depth - 1];
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	// d goes from 0 (the outermost element) to getDepth() - 1
+	public int getNameId(int d) {
+		if (d < 0 || d >= depth) {
+			throw new IndexOutOfBoundsException("No element at depth " + d);
+		}
+		return nameIds[d];
+	}
+
+	// the ids of the open elements are in [0, getDepth()); the array must not be modified
+	public int[] getNameIds() {
+		return nameIds;
+	}
+
+	public CharSequence getName(int d) {
+		if (d < 0 || d >= depth) {
+			throw new IndexOutOfBoundsException("No element at depth " + d);
+		}
+		int start = starts[d] == 1 ? 1 : starts[d] + 1; // skip the separator
+		int end = d + 1 < depth ? starts[d + 1] : length;
+		return subSequence(start, end);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new StringIndexOutOfBoundsException(index);
+		}
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new StringIndexOutOfBoundsException("[" + start + ", " + end + ")");
+		}
+		return new String(chars, start, end - start);
+	}
+
+	// compares without building a String
+	public boolean contentEquals(CharSequence s) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (chars[i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		if (string == null) {
+			string = new String(chars, 0, length);
+		}
+		return string;
+	}
+}
\ No newline at end of file
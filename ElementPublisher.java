@@ -0,0 +1,162 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Publishes one record per element selected by a query (see Query), mapped from the complete
+// Element. The parser only moves forward while the subscriber has outstanding demand: when the
+// demand is used up, parsing goes on until the next record is buffered or the document ends, so
+// that completion is signalled without waiting for a request, and resumes on the next request. A
+// slow subscriber never makes more than one record pile up in memory. Parsing and onNext calls run on the
+// executor, one task at a time. A publisher has a single subscriber.
+public class ElementPublisher<T> implements Flow.Publisher<T> {
+
+	private Parser parser;
+	private QueryEngine engine;
+	private Function<Element, T> mapper;
+	private Executor executor;
+	private Queue<Element> matches; // selected by the last readNext() and not yet emitted
+	private boolean finished; // the parser reached the end of the root element
+	private Flow.Subscriber<? super T> subscriber;
+
+	private AtomicLong demand;
+	private AtomicInteger wip; // drain requests not yet handled; the task that takes it from 0 drains
+	private volatile boolean cancelled;
+	private volatile Throwable invalidRequest; // signalled by the next drain
+	private boolean done; // no more signal may be sent
+
+	public ElementPublisher(Parser parser, String expression, Function<Element, T> mapper) {
+		this(parser, expression, mapper, ForkJoinPool.commonPool());
+	}
+
+	public ElementPublisher(Parser parser, String expression, Function<Element, T> mapper, Executor executor) {
+		this.parser = parser;
+		this.mapper = mapper;
+		this.executor = executor;
+		this.matches = new ArrayDeque<Element>();
+		this.engine = new QueryEngine();
+		this.engine.selectElements(expression, elt -> matches.add(parser.isRecyclingElements() ? elt.copy() : elt));
+		this.demand = new AtomicLong();
+		this.wip = new AtomicInteger();
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		synchronized (this) {
+			if (this.subscriber != null) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("ElementPublisher allows a single subscriber"));
+				return;
+			}
+			this.subscriber = subscriber;
+		}
+		engine.attach(parser);
+		subscriber.onSubscribe(new Subscription());
+	}
+
+	private class Subscription implements Flow.Subscription {
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+				schedule();
+				return;
+			}
+			long current;
+			do {
+				current = demand.get();
+			} while (current != Long.MAX_VALUE && !demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+	}
+
+	private void schedule() {
+		if (wip.getAndIncrement() == 0) {
+			executor.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		int missed = 1;
+		do {
+			if (invalidRequest != null) {
+				signalError(invalidRequest);
+			}
+			long requested = demand.get();
+			long emitted = 0;
+			try {
+				while (!done && !cancelled && emitted != requested) {
+					Element match = nextMatch();
+					if (match == null) {
+						break;
+					}
+					subscriber.onNext(mapper.apply(match));
+					emitted++;
+				}
+				if (!done && !cancelled && emitted == requested) {
+					readAhead(); // the end may come without any further record
+				}
+				if (!done && !cancelled && matches.isEmpty() && finished) {
+					done = true;
+					engine.detach(parser);
+					subscriber.onComplete();
+				}
+			} catch (RuntimeException e) {
+				signalError(e);
+			}
+			if (cancelled && !done) {
+				done = true;
+				engine.detach(parser);
+			}
+			if (emitted != 0 && requested != Long.MAX_VALUE) {
+				demand.addAndGet(-emitted);
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	// parses until an element is selected, or the root element ends
+	private Element nextMatch() {
+		readAhead();
+		return matches.poll();
+	}
+
+	private void readAhead() {
+		while (matches.isEmpty() && !finished) {
+			if (!parser.hasMoreInput()) {
+				finished = true;
+				break;
+			}
+			parser.readNext();
+			if (!parser.hasCurrentElement()) {
+				finished = true;
+			}
+		}
+	}
+
+	private void signalError(Throwable error) {
+		if (!done) {
+			done = true;
+			engine.detach(parser);
+			subscriber.onError(error);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class ElementPublisherTests {
+
+	private String input = "<root><order id=\"1\"><amount>10</amount></order><skip><order id=\"x\"/></skip>"
+						 + "<order id=\"2\"><amount>20</amount></order><order id=\"3\"/></root>";
+	
+	@Test
+	public void parsing_waits_for_demand() {
+		Parser parser = new Parser(input);
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+		new ElementPublisher<String>(parser, "/root/order", elt -> elt.getAttribute("id"), Runnable::run).subscribe(subscriber);
+		
+		assertTrue(subscriber.items.isEmpty());
+		assertEquals(parser.getCurrInputIdx(), 0);
+		
+		subscriber.subscription.request(1);
+		assertEquals(subscriber.items, List.of("1"));
+		int position = parser.getCurrInputIdx();
+		assertTrue(position <= input.indexOf("<order id=\"3\"")); // order 2 is buffered, no further
+		
+		subscriber.subscription.request(1);
+		assertEquals(subscriber.items, List.of("1", "2"));
+		assertFalse(subscriber.completed);
+		subscriber.subscription.request(5);
+		assertEquals(subscriber.items, List.of("1", "2", "3"));
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+	
+	@Test
+	public void exact_demand_completes_without_another_request() {
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+		new ElementPublisher<String>(new Parser("<root><order/><order/><order/></root>"), "/root/order", Element::getName,
+									 Runnable::run).subscribe(subscriber);
+		
+		subscriber.subscription.request(3);
+		assertEquals(subscriber.items, List.of("order", "order", "order"));
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+	
+	@Test
+	public void records_are_published_on_the_executor() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		RecordingSubscriber<Element> subscriber = new RecordingSubscriber<Element>();
+		new ElementPublisher<Element>(new Parser(input), "//order/amount", Function.identity(), executor).subscribe(subscriber);
+		
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertEquals(subscriber.items.size(), 2);
+		assertEquals(subscriber.items.get(1).getData(), "20");
+		assertTrue(subscriber.completed);
+	}
+	
+	@Test
+	public void errors_end_the_subscription() {
+		RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<Integer>();
+		new ElementPublisher<Integer>(new Parser(input), "/root/order", elt -> { throw new ArithmeticException("boom"); },
+									  Runnable::run).subscribe(subscriber);
+		subscriber.subscription.request(5);
+		assertTrue(subscriber.error instanceof ArithmeticException);
+		
+		RecordingSubscriber<Element> second = new RecordingSubscriber<Element>();
+		new ElementPublisher<Element>(new Parser(input), "/root/order", Function.identity(), Runnable::run).subscribe(second);
+		second.subscription.request(0);
+		assertTrue(second.error instanceof IllegalArgumentException);
+		second.subscription.request(1);
+		assertTrue(second.items.isEmpty());
+	}
+	
+	private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+		Flow.Subscription subscription;
+		List<T> items = new ArrayList<T>();
+		boolean completed;
+		Throwable error;
+		CountDownLatch done = new CountDownLatch(1);
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+		
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+		}
+		
+		@Override
+		public void onError(Throwable error) {
+			this.error = error;
+			done.countDown();
+		}
+		
+		@Override
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+	}
+}
\ No newline at end of file
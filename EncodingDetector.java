@@ -0,0 +1,95 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+class EncodingDetector {
+	
+	private static final int PROLOG_LOOKAHEAD = 1024;
+	
+	// wraps the stream in a reader whose charset comes from the byte order mark or the prolog's
+	// encoding declaration, consuming the byte order mark if there is one
+	static Reader reader(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in);
+		buffered.mark(PROLOG_LOOKAHEAD);
+		byte[] head = buffered.readNBytes(PROLOG_LOOKAHEAD);
+		buffered.reset();
+		
+		Charset charset = detect(head);
+		buffered.skipNBytes(byteOrderMarkLength(head));
+		return new InputStreamReader(buffered, charset);
+	}
+	
+	static Charset detect(byte[] head) throws IOException {
+		if (startsWith(head, 0xEF, 0xBB, 0xBF)) {
+			return StandardCharsets.UTF_8;
+		} else if (startsWith(head, 0xFE, 0xFF) || startsWith(head, 0x00, '<', 0x00, '?')) {
+			return StandardCharsets.UTF_16BE;
+		} else if (startsWith(head, 0xFF, 0xFE) || startsWith(head, '<', 0x00, '?', 0x00)) {
+			return StandardCharsets.UTF_16LE;
+		}
+		
+		// every charset allowed here is ASCII-compatible up to the end of the prolog
+		String prolog = new String(head, StandardCharsets.ISO_8859_1);
+		int prologEnd = prolog.indexOf("?>");
+		if (!prolog.startsWith("<?xml") || prologEnd < 0) {
+			return StandardCharsets.UTF_8;
+		}
+		String name = readEncodingDeclaration(prolog.substring(0, prologEnd));
+		if (name == null) {
+			return StandardCharsets.UTF_8;
+		}
+		try {
+			return Charset.forName(name);
+		} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+			throw new UnsupportedEncodingException("Unsupported encoding in XML prolog: " + name);
+		}
+	}
+	
+	private static String readEncodingDeclaration(String prolog) {
+		int idx = prolog.indexOf("encoding");
+		if (idx < 0) {
+			return null;
+		}
+		idx += "encoding".length();
+		while (idx < prolog.length() && (Character.isWhitespace(prolog.charAt(idx)) || prolog.charAt(idx) == '=')) {
+			idx++;
+		}
+		if (idx >= prolog.length()) {
+			return null;
+		}
+		char quote = prolog.charAt(idx);
+		int end = prolog.indexOf(quote, idx + 1);
+		if ((quote != '"' && quote != '\'') || end < 0) {
+			return null;
+		}
+		return prolog.substring(idx + 1, end);
+	}
+	
+	static int byteOrderMarkLength(byte[] head) {
+		if (startsWith(head, 0xEF, 0xBB, 0xBF)) {
+			return 3;
+		} else if (startsWith(head, 0xFE, 0xFF) || startsWith(head, 0xFF, 0xFE)) {
+			return 2;
+		}
+		return 0;
+	}
+	
+	private static boolean startsWith(byte[] head, int... prefix) {
+		if (head.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if ((head[i] & 0xFF) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
\ No newline at end of file
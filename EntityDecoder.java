@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+// Replaces entity and character references: the five predefined entities, decimal (&#169;) and
+// hexadecimal (&#x20AC;) character references, and entities registered by the caller. Names are
+// looked up in a small hash table keyed by their first char and length, and compared in place,
+// so decoding a reference allocates nothing. A reference this decoder does not know is left as
+// it is in the text. Entities must be registered before parsing starts.
+public class EntityDecoder {
+
+	// the predefined entities only; it cannot be changed
+	public static final EntityDecoder PREDEFINED = new EntityDecoder(true);
+
+	private static final int BUCKETS = 64;
+	private static final int MIN_REFERENCE_LENGTH = 32; // enough for any character reference
+
+	private String[][] names; // per bucket
+	private String[][] replacements; // per bucket
+	private int maxReferenceLength; // '&' to ';' included
+	private boolean frozen;
+
+	public EntityDecoder() {
+		this.names = new String[BUCKETS][];
+		this.replacements = new String[BUCKETS][];
+		this.maxReferenceLength = MIN_REFERENCE_LENGTH;
+		register("amp", "&");
+		register("lt", "<");
+		register("gt", ">");
+		register("quot", "\"");
+		register("apos", "'");
+	}
+
+	private EntityDecoder(boolean frozen) {
+		this();
+		this.frozen = frozen;
+	}
+
+	// a name registered again replaces the previous replacement
+	public void register(String name, String replacement) {
+		if (frozen) {
+			throw new UnsupportedOperationException("The predefined entities cannot be changed");
+		}
+		if (name.isEmpty() || name.charAt(0) == '#' || name.indexOf(';') >= 0 || name.indexOf('&') >= 0) {
+			throw new IllegalArgumentException("Invalid entity name: " + name);
+		}
+		int bucket = bucket(name.charAt(0), name.length());
+		String[] bucketNames = names[bucket];
+		if (bucketNames == null) {
+			names[bucket] = new String[] { name };
+			replacements[bucket] = new String[] { replacement };
+		} else {
+			for (int i = 0; i < bucketNames.length; i++) {
+				if (bucketNames[i].equals(name)) {
+					replacements[bucket][i] = replacement;
+					return;
+				}
+			}
+			names[bucket] = Arrays.copyOf(bucketNames, bucketNames.length + 1);
+			names[bucket][bucketNames.length] = name;
+			replacements[bucket] = Arrays.copyOf(replacements[bucket], bucketNames.length + 1);
+			replacements[bucket][bucketNames.length] = replacement;
+		}
+		maxReferenceLength = Math.max(maxReferenceLength, name.length() + 2);
+	}
+
+	// longest reference this decoder can replace, from '&' to ';'
+	public int getMaxReferenceLength() {
+		return maxReferenceLength;
+	}
+
+	// src[start] is a '&' and the reference must end before end; appends the replacement to out and
+	// returns the index past the ';', or returns -1 and appends nothing when the reference is unknown
+	public int decode(char[] src, int start, int end, StringBuilder out) {
+		int limit = Math.min(end, start + maxReferenceLength);
+		int semicolon = start + 1;
+		while (semicolon < limit && src[semicolon] != ';') {
+			semicolon++;
+		}
+		if (semicolon >= limit || semicolon == start + 1) {
+			return -1;
+		}
+
+		if (src[start + 1] == '#') {
+			int codePoint = parseCharacterReference(src, start + 2, semicolon);
+			if (codePoint < 0) {
+				return -1;
+			}
+			out.appendCodePoint(codePoint);
+			return semicolon + 1;
+		}
+
+		int nameStart = start + 1;
+		int length = semicolon - nameStart;
+		int bucket = bucket(src[nameStart], length);
+		String[] bucketNames = names[bucket];
+		if (bucketNames != null) {
+			for (int i = 0; i < bucketNames.length; i++) {
+				if (matches(bucketNames[i], src, nameStart, length)) {
+					out.append(replacements[bucket][i]);
+					return semicolon + 1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	// replaces every reference in the text
+	public String decode(String text) {
+		if (text.indexOf('&') < 0) {
+			return text;
+		}
+		char[] chars = text.toCharArray();
+		StringBuilder out = new StringBuilder(chars.length);
+		appendDecoded(chars, 0, chars.length, out);
+		return out.toString();
+	}
+
+	// appends src[start, end) to out with the references replaced, copying the runs between them in bulk
+	public void appendDecoded(char[] src, int start, int end, StringBuilder out) {
+		int run = start;
+		for (int idx = start; idx < end; idx++) {
+			if (src[idx] != '&') {
+				continue;
+			}
+			int next = decode(src, idx, end, out.append(src, run, idx - run));
+			if (next < 0) {
+				run = idx; // the '&' stays in the text
+			} else {
+				run = next;
+				idx = next - 1;
+			}
+		}
+		out.append(src, run, end - run);
+	}
+
+	private static int parseCharacterReference(char[] src, int start, int end) {
+		int radix = 10;
+		if (start < end && (src[start] == 'x' || src[start] == 'X')) {
+			radix = 16;
+			start++;
+		}
+		if (start == end) {
+			return -1;
+		}
+		int codePoint = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(src[i], radix);
+			if (digit < 0 || src[i] > 'f') { // only ASCII digits
+				return -1;
+			}
+			codePoint = codePoint * radix + digit;
+			if (codePoint > Character.MAX_CODE_POINT) {
+				return -1;
+			}
+		}
+		if (codePoint == 0 || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+			return -1;
+		}
+		return codePoint;
+	}
+
+	private static int bucket(char first, int length) {
+		return (first + length * 7) & (BUCKETS - 1);
+	}
+
+	private static boolean matches(String name, char[] src, int start, int length) {
+		if (name.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (name.charAt(i) != src[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
\ No newline at end of file
@@ -1,4 +1,3 @@
-import java.util.EmptyStackException;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -9,33 +8,19 @@ public class Example {
 		Parser parser = new Parser(input);
 		
 		Map<String, Integer> idToAmount = new HashMap<String, Integer>();
+		String[] id = new String[1];
 		
-		String id = null;
-		Integer amount = null;
-		
-		// get order ids with amount > 100
-		while (parser.getCurrInputIdx() < input.length()) {
-			parser.readNext();
-			Element currElt = null;
-			try {
-				currElt = parser.getCurrentElement();
-			} catch (EmptyStackException e) {
-				break;
-			}
-			
-			if (!currElt.getAttributes().isEmpty()) {
-				id = currElt.getAttributes().get("id");
-			}
-			if (!currElt.getData().equals("")) {
-				amount = Integer.parseInt(currElt.getData());
+		// get order ids with amount > 100; an order's id is always matched before its amount
+		QueryEngine engine = new QueryEngine();
+		engine.select("/root/order/@id", value -> id[0] = value);
+		engine.select("/root/order/amount/text()", value -> {
+			int amount = Integer.parseInt(value);
+			if (amount > 100) {
+				idToAmount.put(id[0], amount);
 			}
-			
-			if (amount != null && amount > 100) {
-				idToAmount.put(id, amount);
-				id = null;
-				amount = null;
-			}
-		}
+		});
+		engine.run(parser);
+		
 		for (String ID : idToAmount.keySet()) {
 			System.out.print("id: " + ID + " amount: " + idToAmount.get(ID) + "\n");
 		}
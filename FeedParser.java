@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Parses a document that arrives in chunks of any size, such as messages read off a non-blocking
+// channel: feed() never blocks, and readNext() returns NEED_MORE_INPUT when the chunks fed so far
+// end before the next step is complete, instead of throwing. Nothing is lost: the step is only
+// taken once enough input is fed, so a tag, a reference or a multibyte char may be split anywhere.
+// Only the part of the document not read yet is buffered. Deciding whether a step is complete
+// scans its chars once before they are parsed, which costs some throughput over a Reader.
+// The usual Parser getters report on the document as it was read so far; endOfInput() is called
+// after the last chunk, and the document then reads to the end as with any other parser.
+public class FeedParser {
+
+	private Parser parser;
+	private CharsetDecoder decoder;
+	private ByteBuffer bytes; // fed bytes not decoded yet: the start of a char split between chunks
+	private CharBuffer chars; // decoded chars on their way to the parser
+	private boolean started; // a first char was decoded, and a byte order mark skipped
+	private boolean ended;
+
+	public FeedParser() {
+		this(StandardCharsets.UTF_8);
+	}
+
+	// malformed and unmappable input is replaced, as by the InputStream constructor of Parser
+	public FeedParser(Charset charset) {
+		this.parser = new Parser();
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(1024);
+		this.chars = CharBuffer.allocate(1024);
+	}
+
+	// the parser to read the current element, path and data from; its readNext() is the same as ours
+	public Parser getParser() {
+		return parser;
+	}
+
+	public void feed(byte[] chunk) {
+		feed(ByteBuffer.wrap(chunk));
+	}
+
+	public void feed(byte[] chunk, int offset, int length) {
+		feed(ByteBuffer.wrap(chunk, offset, length));
+	}
+
+	// consumes the remaining bytes of the chunk
+	public void feed(ByteBuffer chunk) {
+		if (ended) {
+			throw new IllegalStateException("Input already ended");
+		}
+		if (bytes.remaining() < chunk.remaining()) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + chunk.remaining()));
+			bytes.flip();
+			bytes = larger.put(bytes);
+		}
+		bytes.put(chunk);
+		bytes.flip();
+		decode(false);
+		bytes.compact();
+	}
+
+	// text already decoded, fed as it is
+	public void feed(CharSequence chunk) {
+		if (ended) {
+			throw new IllegalStateException("Input already ended");
+		}
+		pass(CharBuffer.wrap(chunk));
+	}
+
+	// after the last chunk; readNext() then reads as for a complete document, and throws if it is cut short
+	public void endOfInput() {
+		if (ended) {
+			return;
+		}
+		ended = true;
+		bytes.flip();
+		decode(true);
+		bytes.clear();
+		parser.endOfFeed();
+	}
+
+	public Parser.NextInputType readNext() {
+		return parser.readNext();
+	}
+
+	private void decode(boolean endOfInput) {
+		while (true) {
+			chars.clear();
+			boolean overflow = decoder.decode(bytes, chars, endOfInput).isOverflow();
+			if (endOfInput && !overflow) {
+				decoder.flush(chars);
+			}
+			chars.flip();
+			pass(chars);
+			if (!overflow) {
+				return;
+			}
+		}
+	}
+
+	private void pass(CharBuffer decoded) {
+		if (!started && decoded.hasRemaining()) {
+			started = true;
+			if (decoded.get(decoded.position()) == '\uFEFF') { // byte order mark
+				decoded.get();
+			}
+		}
+		parser.feed(decoded);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FeedParserTests {
+
+	private String input;
+
+	@Test
+	public void chunks_of_any_size_read_as_the_whole_document() {
+		input = "<?xml version=\"1.0\"?><orders><!-- today --><order id=\"1\" note=\"caf\u00e9 &amp; \u20ac\">"
+			  + "Ren\u00e9 &#x1F600; &lt;ok&gt;<item/><item sku=\"a/b\"></item> tail </order><order id=\"2\"/></orders>";
+		List<String> expected = trace(new Parser(input), null);
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+
+		for (int chunkSize : new int[] { 1, 2, 3, 7, 64, bytes.length }) {
+			FeedParser sut = new FeedParser();
+			List<String> events = new ArrayList<String>();
+			int fed = 0;
+			while (true) {
+				Parser.NextInputType type = sut.readNext();
+				if (type == Parser.NextInputType.NEED_MORE_INPUT) {
+					assertTrue(fed < bytes.length, "needs input after all of it was fed");
+					sut.feed(Arrays.copyOfRange(bytes, fed, Math.min(fed + chunkSize, bytes.length)));
+					fed = Math.min(fed + chunkSize, bytes.length);
+					continue;
+				}
+				events.add(describe(sut.getParser(), type));
+				if (!sut.getParser().hasCurrentElement()) {
+					break;
+				}
+			}
+			assertEquals(events, expected, "chunks of " + chunkSize);
+		}
+	}
+
+	@Test
+	public void skipped_subtrees_resume_on_the_next_chunk() {
+		input = "<r><skip a=\"x>y\"><!-- <c> --><c><d/></c><![CDATA[</skip>]]></skip><keep>k</keep></r>";
+		List<String> expected = trace(new Parser(input), "skip");
+
+		FeedParser sut = new FeedParser();
+		sut.getParser().setElementFilter(elt -> !elt.getName().equals("skip"));
+		List<String> events = new ArrayList<String>();
+		for (int i = 0; i < input.length(); i++) {
+			sut.feed(input.substring(i, i + 1));
+			Parser.NextInputType type;
+			while ((type = sut.readNext()) != Parser.NextInputType.NEED_MORE_INPUT) {
+				events.add(describe(sut.getParser(), type));
+				if (!sut.getParser().hasCurrentElement()) {
+					break;
+				}
+			}
+		}
+		assertEquals(events, expected);
+	}
+
+	@Test
+	public void skipCurrentElement_finishes_when_the_rest_is_fed() {
+		FeedParser sut = new FeedParser();
+		sut.feed("<r><big a=\"1\"><x>");
+		assertEquals(sut.readNext(), Parser.NextInputType.ELEMENT);
+		assertEquals(sut.readNext(), Parser.NextInputType.ELEMENT);
+		assertEquals(sut.getParser().getPath(), "/r/big");
+		sut.getParser().skipCurrentElement();
+		assertEquals(sut.readNext(), Parser.NextInputType.NEED_MORE_INPUT);
+		
+		sut.feed("te</x></bi");
+		assertEquals(sut.readNext(), Parser.NextInputType.NEED_MORE_INPUT);
+		sut.feed("g><z/></r>");
+		assertEquals(sut.readNext(), Parser.NextInputType.CLOSING_TAG);
+		assertEquals(sut.getParser().getPath(), "/r");
+		assertEquals(sut.readNext(), Parser.NextInputType.ALT_CLOSING);
+		assertEquals(sut.readNext(), Parser.NextInputType.CLOSING_TAG);
+		assertFalse(sut.getParser().hasCurrentElement());
+	}
+	
+	@Test
+	public void input_cut_short_fails_once_it_has_ended() {
+		FeedParser sut = new FeedParser();
+		sut.feed("<r><a>text");
+		assertEquals(sut.readNext(), Parser.NextInputType.ELEMENT);
+		assertEquals(sut.readNext(), Parser.NextInputType.NEED_MORE_INPUT); // the text of <a> may go on
+		assertEquals(sut.getParser().getPath(), "/r");
+		sut.endOfInput();
+		assertThrows(StringIndexOutOfBoundsException.class, () -> sut.readNext());
+		assertThrows(IllegalStateException.class, () -> sut.feed("</a>"));
+	}
+
+	private List<String> trace(Parser parser, String skipped) {
+		if (skipped != null) {
+			parser.setElementFilter(elt -> !elt.getName().equals(skipped));
+		}
+		List<String> events = new ArrayList<String>();
+		while (true) {
+			Parser.NextInputType type = parser.readNext();
+			events.add(describe(parser, type));
+			if (!parser.hasCurrentElement()) {
+				return events;
+			}
+		}
+	}
+
+	private static String describe(Parser parser, Parser.NextInputType type) {
+		if (!parser.hasCurrentElement()) {
+			return type + " /";
+		}
+		return type + " " + parser.getPath() + " " + parser.getCurrentAttributes() + " " + parser.getCurrentData();
+	}
+}
\ No newline at end of file
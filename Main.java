@@ -1,61 +1,146 @@
-import java.util.EmptyStackException;
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+// Parses a corpus of XML files concurrently and reports the throughput, to size the hardware of
+// reprocessing jobs. Every file is read to the end of its root element through readNext().
+// Usage: java Main [-t threads] [-q] <file, directory or glob>...
+//   a directory stands for the .xml files below it, a glob such as "data/**/*.xml" is matched
+//   against the files below its leading directories; -t sets the number of files parsed at the
+//   same time (default: one per core), and -q leaves out the line printed for each file.
+// The exit status is 1 when a file failed, 2 for invalid arguments.
 public class Main {
-	@SuppressWarnings("resource")
-	public static byte[] getBytesFromFile(File file) throws IOException {
-		InputStream is = new FileInputStream(file);
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean quiet = false;
+		List<String> patterns = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-t") && i + 1 < args.length) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-q")) {
+					quiet = true;
+				} else {
+					patterns.add(args[i]);
+				}
+			}
+			if (patterns.isEmpty() || threads < 1) {
+				throw new IllegalArgumentException();
+			}
+		} catch (IllegalArgumentException e) { // NumberFormatException included
+			System.err.println("Usage: java Main [-t threads] [-q] <file, directory or glob>...");
+			System.exit(2);
+		}
 
-		// Get the size of the file
-		long length = file.length();
+		List<Path> files;
+		try {
+			files = findFiles(patterns);
+		} catch (IOException | UncheckedIOException | InvalidPathException e) {
+			System.err.println("Could not list the files: " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+		if (files.isEmpty()) {
+			System.err.println("No XML file found");
+			System.exit(2);
+		}
 
-		// You cannot create an array using a long type.
-		// It needs to be an int type.
-		// Before converting to an int type, check
-		// to ensure that file is not larger than Integer.MAX_VALUE.
-		if (length > Integer.MAX_VALUE) {
-			// File is too large
-			throw new IOException("File " + file.getName() + " is too large");
+		BatchParser.Report<Long> report;
+		try (BatchParser batch = new BatchParser(threads)) {
+			report = batch.parseFiles(files, Main::countElements);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
 		}
 
-		// Create the byte array to hold the data
-		byte[] bytes = new byte[(int)length];
+		long elements = 0;
+		for (BatchParser.Outcome<Long> outcome : report.getOutcomes()) {
+			Path file = files.get(outcome.getIndex());
+			double seconds = outcome.getNanos() / 1e9;
+			if (outcome.isSuccess()) {
+				elements += outcome.getValue();
+				if (!quiet) {
+					System.out.printf("%10.2f MB %10.1f ms %10.2f MB/s %12.0f elements/s  %s%n", outcome.getLength() / (1024.0 * 1024.0),
+									  outcome.getNanos() / 1e6, outcome.getLength() / (1024.0 * 1024.0) / seconds,
+									  outcome.getValue() / seconds, file);
+				}
+			} else {
+				System.out.printf("FAILED %s: %s%n", file, outcome.getError());
+			}
+		}
+		System.out.printf("%d files, %d failed, %d threads, %.1f s%n", report.getDocumentCount(), report.getFailureCount(),
+						  threads, report.getWallNanos() / 1e9);
+		System.out.printf("%.2f MB/s, %.0f elements/s, per file p50 %.1f ms, p99 %.1f ms%n", report.getMegabytesPerSecond(),
+						  elements / (report.getWallNanos() / 1e9), report.getLatencyNanos(50) / 1e6, report.getLatencyNanos(99) / 1e6);
+		System.exit(report.getFailureCount() > 0 ? 1 : 0);
+	}
 
-		// Read in the bytes
-		int offset = 0;
-		int numRead = 0;
-		while (offset < bytes.length && (numRead = is.read(bytes, offset, bytes.length - offset)) >= 0) {
-			offset += numRead;
+	private static long countElements(Parser parser) {
+		ParserMetrics metrics = new ParserMetrics();
+		parser.setMetrics(metrics);
+		while (parser.hasMoreInput()) {
+			parser.readNext();
+			if (!parser.hasCurrentElement()) {
+				break;
+			}
 		}
+		return metrics.getElementCount();
+	}
 
-		// Ensure all the bytes have been read in
-		if (offset < bytes.length) {
-			throw new IOException("Could not completely read file " + file.getName());
+	// each file once, in the order of the patterns
+	static List<Path> findFiles(List<String> patterns) throws IOException {
+		Set<Path> files = new LinkedHashSet<Path>();
+		for (String pattern : patterns) {
+			if (isGlob(pattern)) {
+				Path base = globBase(pattern);
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+				files.addAll(walk(base, matcher::matches));
+				continue;
+			}
+			Path path = Paths.get(pattern);
+			if (Files.isDirectory(path)) {
+				files.addAll(walk(path, file -> file.getFileName().toString().toLowerCase().endsWith(".xml")));
+			} else if (Files.exists(path)) {
+				files.add(path);
+			} else {
+				throw new IOException(pattern + " does not exist");
+			}
 		}
+		return new ArrayList<Path>(files);
+	}
 
-		// Close the input stream and return bytes
-		is.close();
-		return bytes;
+	private static boolean isGlob(String pattern) {
+		return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0 || pattern.indexOf('{') >= 0;
 	}
 
-	public static void main(String[] args) {
-		String input = null;
-		try {
-			input = new String(getBytesFromFile(new File("C:\\temp\\standard.xml")));
-		} catch (Exception e) {
-			System.out.println("Could not create string from XML file");
-		}
-		
-		Parser parser = new Parser(input);
-		while (parser.getCurrInputIdx() < input.length()) {
-			parser.readNext();
-			Element currElt = null;
-			try {
-				currElt = parser.getCurrentElement();
-			} catch (EmptyStackException e) {
-				break;
+	// The directories before the first name with a wildcard, where the walk starts. The pattern is
+	// cut as a string: wildcards are not valid in a Path on Windows.
+	private static Path globBase(String pattern) {
+		int end = 0;
+		for (int i = 0; i < pattern.length() && !isGlob(pattern.substring(i, i + 1)); i++) {
+			if (pattern.charAt(i) == '/' || pattern.charAt(i) == File.separatorChar) {
+				end = i + 1;
 			}
-			System.out.println(currElt.getName());
+		}
+		return Paths.get(pattern.substring(0, end));
+	}
+
+	private static List<Path> walk(Path directory, Predicate<Path> filter) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			return paths.filter(Files::isRegularFile).filter(filter).sorted().collect(Collectors.toList());
 		}
 	}
 }
\ No newline at end of file
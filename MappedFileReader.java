@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// decodes a file straight out of memory-mapped windows, so the page cache does the I/O and
+// no byte[] or String copy of the file is ever made
+class MappedFileReader extends Reader {
+	
+	static final int DEFAULT_MAPPING_SIZE = 1 << 26; // 64 MB
+	
+	private Path file;
+	private long fileSize;
+	private int mappingSize;
+	private MappedByteBuffer window; // null once the file has been fully decoded
+	private long windowStart; // file offset of window[0]
+	private CharsetDecoder decoder;
+	private CharBuffer pending; // holds the low surrogate when a caller asks for a single char
+	
+	MappedFileReader(Path file) throws IOException {
+		this(file, DEFAULT_MAPPING_SIZE);
+	}
+	
+	MappedFileReader(Path file, int mappingSize) throws IOException {
+		this.file = file;
+		this.mappingSize = mappingSize;
+		this.pending = CharBuffer.allocate(2);
+		this.pending.flip();
+		mapWindow(0);
+		
+		byte[] head = new byte[Math.min(window.remaining(), 1024)];
+		window.get(0, head);
+		Charset charset = EncodingDetector.detect(head);
+		this.decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		window.position(EncodingDetector.byteOrderMarkLength(head));
+	}
+	
+	// the mapping stays valid after the channel is closed, so no file handle is held between windows
+	private void mapWindow(long start) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			fileSize = channel.size();
+			windowStart = start;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mappingSize, fileSize - start));
+		}
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (pending.hasRemaining()) {
+			cbuf[off] = pending.get();
+			return 1;
+		}
+		
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (out.position() == off && window != null) {
+			boolean lastWindow = windowStart + window.limit() == fileSize;
+			CoderResult result = decoder.decode(window, out, lastWindow);
+			if (result.isOverflow()) {
+				if (out.position() == off) { // a surrogate pair does not fit in a single char
+					pending.clear();
+					decoder.decode(window, pending, lastWindow);
+					pending.flip();
+					out.put(pending.get());
+				}
+				break;
+			}
+			if (lastWindow) {
+				decoder.flush(out);
+				window = null;
+			} else {
+				mapWindow(windowStart + window.position()); // carries over a sequence split by the window end
+			}
+		}
+		int read = out.position() - off;
+		return read == 0 && window == null ? -1 : read;
+	}
+	
+	@Override
+	public void close() {
+		window = null;
+	}
+}
\ No newline at end of file
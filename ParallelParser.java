@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Parses a document whose root has many children on several cores. The input is split between
+// children of the root, and every chunk is handed to its own Parser with a copy of the root
+// already on the stack, so each chunk handler sees the same paths as a sequential parse.
+// A chunk handler can loop on parser.hasMoreInput(); the root is never popped within a chunk.
+public class ParallelParser {
+
+	private static final int MIN_CHUNK_LENGTH = 64 * 1024;
+
+	private char[] input;
+	private ForkJoinPool pool;
+	private Element root;
+	private SymbolTable symbols; // shared by the parsers of all chunks
+	private int[] childStarts; // start of each child of the root
+	private int[] childEnds; // end (exclusive) of each child of the root
+	private int childCount;
+	private int chunkLength;
+
+	public ParallelParser(String input) {
+		this(input, ForkJoinPool.commonPool());
+	}
+
+	public ParallelParser(String input, ForkJoinPool pool) {
+		this.input = input.toCharArray();
+		this.pool = pool;
+		this.childStarts = new int[64];
+		this.childEnds = new int[64];
+		this.symbols = new SymbolTable();
+		findChildren();
+		this.chunkLength = Math.max(MIN_CHUNK_LENGTH, input.length() / (pool.getParallelism() * 4));
+	}
+
+	public Element getRoot() {
+		return root;
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	public int getChildCount() {
+		return childCount;
+	}
+
+	// results are returned in document order, one per chunk
+	public <R> List<R> parse(Function<Parser, R> chunkHandler) {
+		if (childCount == 0) {
+			return new ArrayList<R>();
+		}
+		return pool.invoke(new OrderedChunk<R>(0, childCount, chunkHandler));
+	}
+
+	// each result is passed to the sink as soon as its chunk is parsed, from the parsing thread
+	public <R> void parseUnordered(Function<Parser, R> chunkHandler, Consumer<R> sink) {
+		if (childCount == 0) {
+			return;
+		}
+		pool.invoke(new UnorderedChunk<R>(0, childCount, chunkHandler, sink));
+	}
+
+	private Parser newChunkParser(int firstChild, int lastChild) {
+		Element enclosing = new Element(root.getName(), root.getNameId());
+		for (int i = 0; i < root.getAttributeCount(); i++) {
+			enclosing.addAttribute(root.getAttributeKey(i), root.getAttributeValue(i));
+		}
+		Parser parser = new Parser(input, childStarts[firstChild], childEnds[lastChild - 1], List.of(enclosing));
+		parser.setSymbolTable(symbols);
+		return parser;
+	}
+
+	// a range of children is split in two until its text is short enough to be parsed as one chunk
+	private boolean isSmallEnough(int firstChild, int lastChild) {
+		return lastChild - firstChild == 1 || childEnds[lastChild - 1] - childStarts[firstChild] <= chunkLength;
+	}
+
+	private class OrderedChunk<R> extends RecursiveTask<List<R>> {
+		private static final long serialVersionUID = 1L;
+		private int firstChild;
+		private int lastChild;
+		private Function<Parser, R> chunkHandler;
+
+		OrderedChunk(int firstChild, int lastChild, Function<Parser, R> chunkHandler) {
+			this.firstChild = firstChild;
+			this.lastChild = lastChild;
+			this.chunkHandler = chunkHandler;
+		}
+
+		@Override
+		protected List<R> compute() {
+			if (isSmallEnough(firstChild, lastChild)) {
+				List<R> result = new ArrayList<R>();
+				result.add(chunkHandler.apply(newChunkParser(firstChild, lastChild)));
+				return result;
+			}
+			int middle = (firstChild + lastChild) >>> 1;
+			OrderedChunk<R> left = new OrderedChunk<R>(firstChild, middle, chunkHandler);
+			left.fork();
+			List<R> right = new OrderedChunk<R>(middle, lastChild, chunkHandler).compute();
+			List<R> result = left.join();
+			result.addAll(right);
+			return result;
+		}
+	}
+
+	private class UnorderedChunk<R> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int firstChild;
+		private int lastChild;
+		private Function<Parser, R> chunkHandler;
+		private Consumer<R> sink;
+
+		UnorderedChunk(int firstChild, int lastChild, Function<Parser, R> chunkHandler, Consumer<R> sink) {
+			this.firstChild = firstChild;
+			this.lastChild = lastChild;
+			this.chunkHandler = chunkHandler;
+			this.sink = sink;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSmallEnough(firstChild, lastChild)) {
+				sink.accept(chunkHandler.apply(newChunkParser(firstChild, lastChild)));
+				return;
+			}
+			int middle = (firstChild + lastChild) >>> 1;
+			invokeAll(new UnorderedChunk<R>(firstChild, middle, chunkHandler, sink),
+					  new UnorderedChunk<R>(middle, lastChild, chunkHandler, sink));
+		}
+	}
+
+	// Finds where each child of the root starts and ends by looking only at markup: comments,
+	// the prolog, quoted attribute values, closing tags and "/>" are skipped or counted, nothing is decoded.
+	private void findChildren() {
+		int idx = 0;
+		int depth = 0;
+		int rootStart = -1;
+		int childStart = -1;
+		while ((idx = indexOf('<', idx)) >= 0) {
+			if (startsWith("<!--", idx)) {
+				idx = skipPast("-->", idx + 4);
+			} else if (startsWith("<?", idx)) {
+				idx = skipPast("?>", idx + 2);
+			} else if (startsWith("</", idx)) {
+				idx = indexOf('>', idx) + 1;
+				depth--;
+				if (depth == 1) {
+					addChild(childStart, idx);
+				} else if (depth == 0) {
+					break;
+				}
+			} else {
+				if (depth == 0) {
+					rootStart = idx;
+				} else if (depth == 1) {
+					childStart = idx;
+				}
+				idx = endOfStartTag(idx);
+				if (input[idx - 2] != '/') {
+					depth++;
+				} else if (depth == 0) {
+					break; // the root has no children
+				} else if (depth == 1) {
+					addChild(childStart, idx);
+				}
+				if (depth == 1 && root == null) {
+					root = readRoot(rootStart);
+				}
+			}
+		}
+		if (root == null && rootStart >= 0) {
+			root = readRoot(rootStart);
+		}
+	}
+
+	private Element readRoot(int rootStart) {
+		int end = endOfStartTag(rootStart);
+		if (input[end - 2] == '/') {
+			end--; // read "<root/>" as "<root>" so that the element stays on the stack
+		}
+		// a closing tag after the start tag lets the parser finish reading the element
+		char[] startTag = new char[end - rootStart + 2];
+		System.arraycopy(input, rootStart, startTag, 0, end - rootStart - 1);
+		startTag[startTag.length - 3] = '>';
+		startTag[startTag.length - 2] = '<';
+		startTag[startTag.length - 1] = '/';
+
+		Parser parser = new Parser(startTag, 0, startTag.length, List.of());
+		parser.setSymbolTable(symbols);
+		parser.readNext();
+		return parser.getCurrentElement();
+	}
+
+	// returns the index just past the '>' of the start tag, skipping '>' inside quoted values
+	private int endOfStartTag(int idx) {
+		char quote = 0;
+		while (idx < input.length) {
+			char c = input[idx++];
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return idx;
+			}
+		}
+		return input.length;
+	}
+
+	private void addChild(int start, int end) {
+		if (childCount == childStarts.length) {
+			childStarts = Arrays.copyOf(childStarts, childCount * 2);
+			childEnds = Arrays.copyOf(childEnds, childCount * 2);
+		}
+		childStarts[childCount] = start;
+		childEnds[childCount] = end;
+		childCount++;
+	}
+
+	private int indexOf(char c, int from) {
+		for (int i = from; i < input.length; i++) {
+			if (input[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int skipPast(String s, int from) {
+		int idx = from;
+		while ((idx = indexOf(s.charAt(0), idx)) >= 0 && !startsWith(s, idx)) {
+			idx++;
+		}
+		return idx < 0 ? input.length : idx + s.length();
+	}
+
+	private boolean startsWith(String s, int idx) {
+		if (idx + s.length() > input.length) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (input[idx + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelParserTests {
+
+	private ParallelParser sut;
+	private String input;
+	
+	@Test
+	public void chunks_see_root_on_stack_and_results_are_in_document_order() {
+		input = "<?xml version=\"1.0\"?><root type=\"orders\"><!-- header --><order id=\"1\"><amount>150</amount></order>"
+			  + " <order id=\"2\"/><order id=\"3\" note=\"a > b\"><amount>2</amount></order></root>";
+		sut = new ParallelParser(input, new ForkJoinPool(4));
+		
+		assertEquals(sut.getRoot().getName(), "root");
+		assertEquals(sut.getRoot().getAttributes().get("type"), "orders");
+		assertEquals(sut.getChildCount(), 3);
+		
+		List<List<String>> chunks = sut.parse(parser -> {
+			List<String> paths = new ArrayList<String>();
+			while (parser.hasMoreInput()) {
+				parser.readNext();
+				paths.add(parser.getPath());
+			}
+			assertEquals(parser.getCurrentElement().getName(), "root");
+			return paths;
+		});
+		
+		List<String> paths = new ArrayList<String>();
+		chunks.forEach(paths::addAll);
+		assertEquals(paths, List.of("/root/order", "/root/order/amount", "/root/order", "/root", "/root",
+									"/root/order", "/root/order/amount", "/root/order", "/root"));
+	}
+	
+	@Test
+	public void unordered_results_cover_every_child() {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < 20000; i++) {
+			sb.append("<order id=\"").append(i).append("\"><amount>").append(i).append("</amount></order>");
+		}
+		input = sb.append("</root>").toString();
+		sut = new ParallelParser(input, new ForkJoinPool(4));
+		
+		List<Integer> counts = Collections.synchronizedList(new ArrayList<Integer>());
+		sut.parseUnordered(parser -> {
+			int orders = 0;
+			while (parser.hasMoreInput()) {
+				parser.readNext();
+				if (parser.getCurrentAttributes().containsKey("id")) {
+					orders++;
+				}
+			}
+			return orders;
+		}, counts::add);
+		
+		assertTrue(counts.size() > 1);
+		assertEquals(counts.stream().mapToInt(Integer::intValue).sum(), 20000 * 2);
+	}
+	
+	@Test
+	public void root_without_children_yields_no_chunks() {
+		sut = new ParallelParser("<root id=\"1\"/>");
+		
+		assertEquals(sut.getRoot().getAttributes().get("id"), "1");
+		assertTrue(sut.parse(parser -> parser).isEmpty());
+	}
+}
\ No newline at end of file
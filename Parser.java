@@ -1,26 +1,179 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EmptyStackException;
-import java.util.Stack;
 import java.util.Map;
 
 public class Parser {
 	
-	private String input;
+	private static final int DEFAULT_WINDOW_SIZE = 8192;
+	
+	private char[] input; // window of the document, or the whole document when parsing a string
+	private int inputLength; // number of valid chars in the window
+	private long inputOffset; // document offset of input[0]
 	private int currInputIdx;
-	private Stack<Element> stack;
-	private List<String> path;
-	static enum NextInputType { ELEMENT, DATA, CLOSING_TAG, ALT_CLOSING };
+	private int tokenStart; // start of the token being scanned, kept in the window when it slides
+	private Reader source; // null once the whole document is in the window
+	private boolean inputShared; // elements point into the input array, which reset() must then not reuse
+	private ElementPath path; // the open elements, with their names
+	private StringBuilder scratch; // reused for text that needs entity replacement
+	private ElementListener listener;
+	private ElementFilter filter;
+	private boolean preserveWhitespace; // keep the whitespace around data instead of trimming it
+	private SymbolTable symbols; // element and attribute names
+	private EntityDecoder entities; // entities and character references in data and attribute values
+	private EntityDecoder installedEntities; // given to setEntityDecoder(), restored by reset()
+	private ParserMetrics metrics; // null unless metrics were asked for
+	private Element[] pool; // elements that ended and can be reused, null unless recycling
+	private int pooled;
+	private boolean feeding; // the input is fed in chunks by a FeedParser, and more may come
+	private Element skipping; // element whose content is being skipped when the fed input ran out
+	private int skipDepth; // open elements left to skip
+	private boolean skippingPushed; // the skipped element is on the path, as for skipCurrentElement()
+	private long searchFrom; // document offset where the last search for a step's end ran out of fed input
+	private long searchedTo; // document offset the search got to, where it resumes
+	static enum NextInputType { ELEMENT, DATA, CLOSING_TAG, ALT_CLOSING, NEED_MORE_INPUT };
+	
+	// thrown when the fed input runs out in the middle of a skip, which then resumes on the next chunk
+	private static class NeedMoreInputException extends StringIndexOutOfBoundsException {
+		private static final long serialVersionUID = 1L;
+		
+		NeedMoreInputException() {
+			super("The fed input ran out");
+		}
+		
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
 	
 	public Parser(String input) {
+		this(input.toCharArray(), input.length(), null);
+	}
+	
+	public Parser(Reader reader) {
+		this(reader, DEFAULT_WINDOW_SIZE);
+	}
+	
+	// the charset is taken from the byte order mark or the prolog's encoding declaration, defaulting to UTF-8
+	public Parser(InputStream in) throws IOException {
+		this(EncodingDetector.reader(in));
+	}
+	
+	public Parser(ReadableByteChannel channel) throws IOException {
+		this(Channels.newInputStream(channel));
+	}
+	
+	// maps the file in windows instead of reading it, for documents larger than 2 GB
+	public Parser(Path file) throws IOException {
+		this(new MappedFileReader(file), DEFAULT_WINDOW_SIZE);
+	}
+	
+	Parser(Reader reader, int windowSize) {
+		this(new char[windowSize], 0, reader);
+	}
+	
+	// for FeedParser: the input is appended by feed() until endOfFeed()
+	Parser() {
+		this(new char[DEFAULT_WINDOW_SIZE], 0, null);
+		this.feeding = true;
+	}
+	
+	// parses input[start, end) of a document shared with other parsers; the elements enclosing
+	// the region are pushed first, outermost first
+	Parser(char[] input, int start, int end, List<Element> enclosing) {
+		this(input, end, null);
+		this.currInputIdx = start;
+		this.inputShared = true;
+		for (Element elt : enclosing) {
+			path.push(elt, elt.getName(), elt.getNameId() >= 0 ? elt.getNameId() : symbols.id(elt.getName()));
+		}
+	}
+	
+	private Parser(char[] input, int inputLength, Reader source) {
 		this.input = input;
+		this.inputLength = inputLength;
+		this.inputOffset = 0;
 		this.currInputIdx = 0;
-		this.stack = new Stack<Element>();
-		this.path = new ArrayList<String>();
+		this.tokenStart = -1;
+		this.source = source;
+		this.path = new ElementPath();
+		this.scratch = new StringBuilder();
+		this.symbols = new SymbolTable();
+		this.entities = EntityDecoder.PREDEFINED;
+		this.installedEntities = EntityDecoder.PREDEFINED;
+		this.searchFrom = -1;
+	}
+	
+	// Starts over on a new document, keeping the symbol table and the buffers: the input array is
+	// reused when it is large enough and no element of the previous document points into it.
+	// The listener, the element filter, whitespace preservation and the entities registered on this
+	// parser are removed, a decoder given to setEntityDecoder() being kept; metrics keep adding up.
+	public void reset(String input) {
+		if (inputShared || input.length() > this.input.length) {
+			this.input = input.toCharArray();
+		} else {
+			input.getChars(0, input.length(), this.input, 0);
+		}
+		this.inputLength = input.length();
+		this.inputOffset = 0;
+		this.currInputIdx = 0;
+		this.tokenStart = -1;
+		this.source = null;
+		this.inputShared = false;
+		this.feeding = false;
+		this.skipping = null;
+		this.searchFrom = -1;
+		this.path.clear();
+		this.listener = null;
+		this.filter = null;
+		this.preserveWhitespace = false;
+		this.entities = installedEntities;
 	}
 	
 	public NextInputType readNext() {
-		if (currInputIdx >= input.length()) {
+		if (metrics != null) {
+			return readNextMeasured();
+		}
+		return readNextInput();
+	}
+	
+	private NextInputType readNextMeasured() {
+		long offset = getCurrInputOffset();
+		if (metrics.startNanos == 0) {
+			metrics.start();
+		}
+		NextInputType type;
+		if (metrics.timed) {
+			long start = System.nanoTime();
+			type = readNextInput();
+			metrics.readNanos += System.nanoTime() - start;
+		} else {
+			type = readNextInput();
+		}
+		metrics.inputLength += getCurrInputOffset() - offset;
+		if ((++metrics.reads & ParserMetrics.CLOCK_MASK) == 0) { // the clock is only read now and then
+			metrics.sample();
+		}
+		return type;
+	}
+	
+	private NextInputType readNextInput() {
+		if (skipping != null) {
+			return resumeSkip();
+		}
+		if (feeding && !isStepAvailable()) {
+			return NextInputType.NEED_MORE_INPUT;
+		}
+		if (!hasMoreInput()) {
 			throw new StringIndexOutOfBoundsException("No input left to read");
 		}
 		
@@ -28,6 +181,10 @@ public class Parser {
 			consumeProlog();
 		}
 		
+		if (preserveWhitespace && hasCurrentElement()) {
+			return readNextPreservingWhitespace();
+		}
+		
 		consumeWhitespace(); // strip leading whitespace
 		consumeComment();
 		consumeWhitespace();
@@ -41,36 +198,83 @@ public class Parser {
 		return readData(getCurrentElement());
 	}
 	
+	// inside an element, any text up to the next tag is data, whitespace included
+	private NextInputType readNextPreservingWhitespace() {
+		while (currChar() == '<' && nextChar() == '!') {
+			consumeComment();
+		}
+		if (currChar() != '<') {
+			return readData(getCurrentElement());
+		} else if (nextChar() == '/') {
+			return readClosingTag();
+		}
+		return readNextElement();
+	}
+	
 	private NextInputType readNextElement() {
+		if (metrics == null) {
+			return readElement();
+		}
+		metrics.elements++;
+		if (!metrics.timed) {
+			return readElement();
+		}
+		long nested = metrics.attributeNanos + metrics.dataNanos;
+		long start = System.nanoTime();
+		NextInputType type = readElement();
+		metrics.elementNanos += System.nanoTime() - start - (metrics.attributeNanos + metrics.dataNanos - nested);
+		return type;
+	}
+	
+	private NextInputType readElement() {
 		currInputIdx++; // consume '<'
 
-		String name = "";
+		tokenStart = currInputIdx;
 		while (currChar() != '>' && currChar() != ' ' && currChar() != '/') { // consume element name
-			name += currChar();
 			currInputIdx++;
 		}
+		int nameId = symbols.id(input, tokenStart, currInputIdx);
+		String name = symbols.symbol(nameId);
+		tokenStart = -1;
 
 		consumeWhitespace();
-		Element newElt = new Element(name);
+		Element newElt = pool == null ? new Element(name, nameId) : obtainElement(name, nameId);
 
 		if (currChar() != '>' && currChar() != '/') {
 			readAttributesList(newElt);
 		}
+		if (listener != null) {
+			listener.elementStarted(newElt);
+		}
+		
+		if (currChar() == '>' && filter != null && !filter.accept(newElt)) {
+			currInputIdx++; // consume '>'
+			if (!skipContent(1)) {
+				return suspendSkip(newElt, false);
+			}
+			endElement(newElt);
+			return NextInputType.ALT_CLOSING;
+		}
 		
 		if (currChar() == '>') {
 			currInputIdx++; // consume '>'
 			// only push if there will be a separate closing tag, not within the opening tag
-			stack.push(newElt);
-			path.add(name);
+			path.push(newElt, name, nameId);
+			if (metrics != null && path.getDepth() > metrics.maxDepth) {
+				metrics.maxDepth = path.getDepth();
+			}
 		}
 		
 		if (currChar() == '/' && nextChar() == '>') {
 			currInputIdx += 2; // consume "/>"
+			endElement(newElt);
 			return NextInputType.ALT_CLOSING;
 		}
 		
 		consumeComment();
-		consumeWhitespace();
+		if (!preserveWhitespace) {
+			consumeWhitespace();
+		}
 		
 		if (currChar() == '<' && nextChar() != '/' && nextChar() != '!') { // detect child element
 			consumeWhitespace();
@@ -84,64 +288,391 @@ public class Parser {
 	}
 	
 	private NextInputType readClosingTag() {
-		stack.pop();
-		path.remove(path.size() - 1);
-		
-		while (currChar() != '>') {
-			currInputIdx++;
-		}
+		Element closed = getCurrentElement(); // throws on a closing tag without an element
+		skipTo('>', '>');
 		currInputIdx++; // consume '>'
+		path.pop();
+		endElement(closed);
 		return NextInputType.CLOSING_TAG;
 	}
 	
-	private NextInputType readData(Element elt) {
-		String data = "";
-		while (currChar() != '<') { // consume data
-			String replaced = detectAndReplaceEscapedChars();
-			data += replaced;
-			
-			if (replaced.equals("")) {
-				data += currChar();
+	// the element is complete: the listener sees it last, then it goes back to the pool if recycling
+	private void endElement(Element elt) {
+		if (listener != null) {
+			listener.elementEnded(elt);
+		}
+		if (pool != null && elt.isRecycled()) {
+			if (pooled == pool.length) {
+				pool = Arrays.copyOf(pool, pooled * 2);
+			}
+			pool[pooled++] = elt;
+		}
+	}
+	
+	private Element obtainElement(String name, int nameId) {
+		if (pooled == 0) {
+			Element elt = new Element(name, nameId);
+			elt.recycle(name, nameId);
+			return elt;
+		}
+		Element elt = pool[--pooled];
+		pool[pooled] = null;
+		elt.recycle(name, nameId);
+		return elt;
+	}
+	
+	// skips the rest of the current element, up to and including its closing tag; when fed input runs
+	// out first, the next readNext() calls finish the skip and return CLOSING_TAG once it is done
+	public void skipCurrentElement() {
+		Element skipped = getCurrentElement();
+		if (!skipContent(1)) {
+			suspendSkip(skipped, true);
+			return;
+		}
+		path.pop();
+		endElement(skipped);
+	}
+	
+	private NextInputType suspendSkip(Element elt, boolean pushed) {
+		skipping = elt;
+		skippingPushed = pushed;
+		return NextInputType.NEED_MORE_INPUT;
+	}
+	
+	private NextInputType resumeSkip() {
+		Element elt = skipping;
+		skipping = null;
+		if (!skipContent(skipDepth)) {
+			return suspendSkip(elt, skippingPushed);
+		}
+		if (skippingPushed) {
+			path.pop();
+		}
+		endElement(elt);
+		return skippingPushed ? NextInputType.CLOSING_TAG : NextInputType.ALT_CLOSING;
+	}
+	
+	// Consumes everything up to the closing tag of the element whose content starts at currInputIdx,
+	// with depth elements left open. Only markup is looked at: start tags (skipping quoted values),
+	// closing tags and "/>" are counted, and comments, processing instructions and CDATA sections are
+	// jumped over, so nothing is decoded. When fed input runs out, the skip stops before the markup it
+	// could not finish, keeps the depth in skipDepth and returns false.
+	private boolean skipContent(int depth) {
+		while (depth > 0) {
+			int markupStart = -1;
+			try {
+				skipTo('<', '<'); // text needs no more input once it is skipped
+				markupStart = currInputIdx;
+				currInputIdx++; // consume '<'
+				char c = currChar();
+				if (c == '/') {
+					skipTo('>', '>');
+					currInputIdx++; // consume '>'
+					depth--;
+				} else if (c == '!') {
+					currInputIdx++; // consume '!'
+					if (currChar() == '-') {
+						skipPast('-', '>'); // "-->"
+					} else if (currChar() == '[') {
+						skipPast(']', '>'); // "]]>"
+					} else {
+						skipTo('>', '>');
+						currInputIdx++; // consume '>'
+					}
+				} else if (c == '?') {
+					currInputIdx++; // consume '?'
+					skipPast('?', '>'); // "?>", a single '?' being enough
+				} else if (!skipStartTag()) {
+					depth++;
+				}
+			} catch (NeedMoreInputException e) {
+				if (markupStart >= 0) {
+					currInputIdx = markupStart;
+				}
+				tokenStart = -1;
+				skipDepth = depth;
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// consumes up to and including the first '>' that follows the marker char repeated at least
+	// twice, or once for '?'
+	private void skipPast(char marker, char end) {
+		int needed = marker == '?' ? 1 : 2;
+		while (true) {
+			skipTo(marker, marker);
+			int count = 0;
+			while (currChar() == marker) {
 				currInputIdx++;
+				count++;
+			}
+			if (count >= needed && currChar() == end) {
+				currInputIdx++; // consume end
+				return;
+			}
+		}
+	}
+	
+	// consumes a start tag after its '<' and returns whether it was closed by "/>"
+	private boolean skipStartTag() {
+		tokenStart = currInputIdx; // keeps the tag in the window to look back at the char before '>'
+		char quote = 0;
+		while (true) {
+			char[] window = input;
+			int end = inputLength;
+			int idx = currInputIdx;
+			for (; idx < end; idx++) {
+				char c = window[idx];
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '>') {
+					currInputIdx = idx + 1; // consume '>'
+					boolean selfClosing = idx > tokenStart && window[idx - 1] == '/';
+					tokenStart = -1;
+					return selfClosing;
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				}
+			}
+			currInputIdx = idx;
+			currChar(); // refills the window, or throws at the end of the input
+		}
+	}
+	
+	private NextInputType readData(Element elt) {
+		if (metrics == null) {
+			return decodeData(elt);
+		}
+		long offset = getCurrInputOffset();
+		long start = metrics.timed ? System.nanoTime() : 0;
+		NextInputType type = decodeData(elt);
+		if (metrics.timed) {
+			metrics.dataNanos += System.nanoTime() - start;
+		}
+		metrics.textLength += getCurrInputOffset() - offset;
+		return type;
+	}
+	
+	private NextInputType decodeData(Element elt) {
+		if (elt.isDataIgnored()) {
+			skipTo('<', '<'); // escaped entities never contain '<'
+			return NextInputType.DATA;
+		}
+		if (elt.isRecycled()) {
+			StringBuilder buffer = elt.getDataBuffer();
+			int start = buffer.length();
+			appendText(buffer, '<');
+			if (!preserveWhitespace) {
+				int end = buffer.length();
+				while (end > start && Character.isWhitespace(buffer.charAt(end - 1))) {
+					end--;
+				}
+				buffer.setLength(end);
 			}
+			elt.endDataSegment();
+			return NextInputType.DATA;
 		}
-		data = data.stripTrailing();
-		elt.appendToData(data);
+		elt.appendToData(readText('<', !preserveWhitespace));
 		return NextInputType.DATA;
 	}
 	
+	// only finds the end of the attribute list; the element parses it if its attributes are asked for
 	private void readAttributesList(Element elt) {
+		if (metrics == null) {
+			findAttributesList(elt);
+			return;
+		}
+		long start = metrics.timed ? System.nanoTime() : 0;
+		metrics.attributes += findAttributesList(elt);
+		if (metrics.timed) {
+			metrics.attributeNanos += System.nanoTime() - start;
+		}
+	}
+	
+	// returns the number of attributes
+	private int findAttributesList(Element elt) {
+		tokenStart = currInputIdx;
+		int count = skipAttributesList();
+		
+		boolean sliding = source != null || feeding;
+		if (!sliding && elt.isRecycled()) { // no longer used once the element ends, so reset() may reuse the input
+			elt.setRawAttributes(input, tokenStart, currInputIdx, symbols, entities);
+		} else if (!sliding) { // the window no longer slides, so the element can point into it
+			elt.setRawAttributes(input, tokenStart, currInputIdx, symbols, entities);
+			inputShared = true;
+		} else if (elt.isRecycled()) {
+			elt.copyRawAttributes(input, tokenStart, currInputIdx, symbols, entities);
+		} else {
+			elt.setRawAttributes(Arrays.copyOfRange(input, tokenStart, currInputIdx), 0, currInputIdx - tokenStart, symbols, entities);
+		}
+		tokenStart = -1;
+		return count;
+	}
+	
+	// returns the number of attributes
+	private int skipAttributesList() {
+		int count = 0;
 		while (currChar() != '>' && currChar() != '/') {
-			String key = "";
-			while (currChar() != '=') { // consume attribute name
-				key += currChar();
-				currInputIdx++;
-			}
-			key = key.stripTrailing();
+			count++;
+			skipTo('=', '='); // consume attribute name
 			currInputIdx++; // consume '='
 			consumeWhitespace();
 			currInputIdx++; // consume '"'
-			
-			String value = "";
-			while (currChar() != '"') { // consume attribute value
-				String replaced = detectAndReplaceEscapedChars();
-				value += replaced;
-				
-				if (replaced.equals("")) {
-					value += currChar();
-					currInputIdx++;
-				}
-			}
+			skipTo('"', '"'); // consume attribute value, escaped entities never contain '"'
 			currInputIdx++; // consume '"'
-			elt.addAttribute(key, value);
 			consumeWhitespace();
 		}
+		return count;
 	}
 	
-	private void consumeWhitespace() {
-		while (Character.isWhitespace(currChar())) {
+	// reads the next event for XmlCursor, one start tag, closing tag, text run or comment at a time;
+	// no Element is created, the open elements are only tracked by the path
+	XmlCursor.EventType readEvent(XmlCursor event) {
+		event.selfClosing = false;
+		event.attributes = null;
+		while (true) {
+			if (path.getDepth() == 0) {
+				skipOutsideRoot();
+			}
+			if (!hasMoreInput()) {
+				if (path.getDepth() > 0) {
+					throw new StringIndexOutOfBoundsException("Input ended inside " + getPath());
+				}
+				event.depth = 0;
+				return XmlCursor.EventType.END_DOCUMENT;
+			}
+			event.depth = path.getDepth();
+			
+			if (currChar() != '<') {
+				event.text.setLength(0);
+				appendText(event.text, '<');
+				return XmlCursor.EventType.CHARACTERS;
+			}
+			char c = nextChar();
+			if (c == '/') {
+				event.nameId = path.getNameId(event.depth - 1);
+				event.name = symbols.symbol(event.nameId);
+				skipTo('>', '>');
+				currInputIdx++; // consume '>'
+				path.pop();
+				return XmlCursor.EventType.END_ELEMENT;
+			} else if (c == '!' && peekChar(2) == '-') {
+				currInputIdx += 4; // consume "<!--"
+				event.text.setLength(0);
+				readUntil("-->", event.text);
+				return XmlCursor.EventType.COMMENT;
+			} else if (c == '!' && peekChar(2) == '[') {
+				currInputIdx += 9; // consume "<![CDATA["
+				event.text.setLength(0);
+				readUntil("]]>", event.text);
+				return XmlCursor.EventType.CHARACTERS;
+			} else if (c == '!') { // DOCTYPE
+				skipTo('>', '>');
+				currInputIdx++; // consume '>'
+			} else if (c == '?') {
+				currInputIdx += 2; // consume "<?"
+				readUntil("?>", null);
+			} else {
+				readStartTag(event);
+				return XmlCursor.EventType.START_ELEMENT;
+			}
+		}
+	}
+	
+	private void readStartTag(XmlCursor event) {
+		currInputIdx++; // consume '<'
+		tokenStart = currInputIdx;
+		while (currChar() != '>' && currChar() != '/' && !isWhitespace(currChar())) { // consume element name
 			currInputIdx++;
 		}
+		event.nameId = symbols.id(input, tokenStart, currInputIdx);
+		event.name = symbols.symbol(event.nameId);
+		tokenStart = -1;
+		consumeWhitespace();
+		
+		tokenStart = currInputIdx; // keeps the attribute list in the window until the next event
+		skipAttributesList();
+		if (currInputIdx > tokenStart) {
+			event.attributes = input;
+			event.attributesStart = tokenStart;
+			event.attributesEnd = currInputIdx;
+		}
+		tokenStart = -1;
+		
+		if (currChar() == '/') {
+			currInputIdx += 2; // consume "/>"
+			event.selfClosing = true;
+			event.depth = path.getDepth() + 1;
+		} else {
+			currInputIdx++; // consume '>'
+			path.push(null, event.name, event.nameId);
+			event.depth = path.getDepth();
+		}
+	}
+	
+	// skips whitespace and stray text around the root element, stopping at the end of the input
+	private void skipOutsideRoot() {
+		while (hasMoreInput() && currChar() != '<') {
+			currInputIdx++;
+		}
+	}
+	
+	// consumes up to and including the terminator, appending what comes before it to out if not null
+	private void readUntil(String terminator, StringBuilder out) {
+		char first = terminator.charAt(0);
+		while (true) {
+			tokenStart = currInputIdx;
+			skipTo(first, first);
+			if (out != null) {
+				out.append(input, tokenStart, currInputIdx - tokenStart);
+			}
+			tokenStart = -1;
+			if (startsWith(terminator)) {
+				currInputIdx += terminator.length();
+				return;
+			}
+			if (out != null) {
+				out.append(first);
+			}
+			currInputIdx++;
+		}
+	}
+	
+	private boolean startsWith(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (peekChar(i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void consumeWhitespace() {
+		while (true) {
+			char[] window = input;
+			int end = inputLength;
+			int idx = currInputIdx;
+			while (idx < end && isWhitespace(window[idx])) {
+				idx++;
+			}
+			currInputIdx = idx;
+			if (idx < end) {
+				return;
+			}
+			currChar(); // refills the window, or throws at the end of the input
+		}
+	}
+	
+	// same as Character.isWhitespace, with a shortcut for the printable ASCII chars that make up most markup
+	private static boolean isWhitespace(char c) {
+		if (c > ' ' && c < 0x80) {
+			return false;
+		}
+		return c == ' ' || Character.isWhitespace(c);
 	}
 	
 	private void consumeProlog() {
@@ -155,9 +686,10 @@ public class Parser {
 	private void consumeComment() {
 		if (currChar() == '<' && nextChar() == '!') { // detect comment opening
 			currInputIdx += 4; // consume "<!--"
-			while (currChar() != '-') {
-				currInputIdx++;
+			if (metrics != null) {
+				metrics.comments++;
 			}
+			skipTo('-', '-');
 			currInputIdx++; // consume '-'
 			if (currChar() == '-' && nextChar() == '>') { // detect comment closing
 				currInputIdx += 2; // consume "->"
@@ -165,68 +697,366 @@ public class Parser {
 		}
 	}
 	
-	// this method needs to return the consumed characters to avoid parsing '<' as the beginning of a new element
-	private String detectAndReplaceEscapedChars() {
-		String replaced = "";
-		while (currChar() == '&' && (nextChar() == 'a' || nextChar() == 'l'
-			   || nextChar() == 'g' || nextChar() == 'q')) { // detect escaped entity
-			currInputIdx++; // consume '&'
-			
-			String escapedName = "";
-			while (currChar() != ';') {
-				escapedName += currChar();
-				currInputIdx++;
+	// reads up to (not including) the terminator; text without '&' is copied out of the window once,
+	// otherwise the runs between references are copied into the reused scratch buffer
+	private String readText(char terminator, boolean stripTrailing) {
+		tokenStart = currInputIdx;
+		skipTo(terminator, '&');
+		if (currChar() == terminator) {
+			return takeToken(stripTrailing ? trimTrailingWhitespace(tokenStart, currInputIdx) : currInputIdx);
+		}
+		
+		scratch.setLength(0);
+		scratch.append(input, tokenStart, currInputIdx - tokenStart);
+		tokenStart = -1;
+		appendText(scratch, terminator);
+		if (stripTrailing) {
+			int end = scratch.length();
+			while (end > 0 && Character.isWhitespace(scratch.charAt(end - 1))) {
+				end--;
 			}
-			
-			switch (escapedName) {
-				case "amp":
-					replaced += '&';
-					break;
-				case "lt":
-					replaced += '<';
-					break;
-				case "gt":
-					replaced += '>';
-					break;
-				case "quot":
-					replaced += '"';
-					break;
-				case "apos":
-					replaced += '\'';
-					break;
-			}
-			currInputIdx++; // consume ';'
-		}
-		return replaced;
+			scratch.setLength(end);
+		}
+		return scratch.toString();
+	}
+	
+	// appends the text up to (not including) the terminator, with the references replaced
+	private void appendText(StringBuilder out, char terminator) {
+		while (currChar() != terminator) {
+			if (currChar() == '&') {
+				decodeReference(out, terminator);
+				continue;
+			}
+			tokenStart = currInputIdx;
+			skipTo(terminator, '&');
+			out.append(input, tokenStart, currInputIdx - tokenStart);
+			tokenStart = -1;
+		}
+	}
+	
+	// the replacements are appended directly to avoid parsing '<' as the beginning of a new element;
+	// a '&' that starts no reference the decoder knows is kept as text
+	private void decodeReference(StringBuilder out, char terminator) {
+		tokenStart = currInputIdx; // keeps the whole reference in the window
+		int max = entities.getMaxReferenceLength();
+		int ahead = 1;
+		char c = 0;
+		while (ahead < max && (c = peekChar(ahead)) != ';' && c != terminator && c != '&') {
+			ahead++;
+		}
+		int next = c == ';' ? entities.decode(input, currInputIdx, currInputIdx + ahead + 1, out) : -1;
+		tokenStart = -1;
+		if (next < 0) {
+			out.append('&');
+			currInputIdx++;
+		} else {
+			currInputIdx = next;
+			if (metrics != null) {
+				metrics.entities++;
+			}
+		}
+	}
+	
+	// advances to the next occurrence of either char, scanning the window array directly
+	// rather than bounds-checking every char through currChar()
+	private void skipTo(char first, char second) {
+		while (true) {
+			char[] window = input;
+			int end = inputLength;
+			int idx = currInputIdx;
+			for (; idx < end; idx++) {
+				char c = window[idx];
+				if (c == first || c == second) {
+					currInputIdx = idx;
+					return;
+				}
+			}
+			currInputIdx = idx;
+			currChar(); // refills the window, or throws at the end of the input
+		}
+	}
+	
+	private String takeToken(int end) {
+		String token = new String(input, tokenStart, end - tokenStart);
+		tokenStart = -1;
+		return token;
+	}
+	
+	private int trimTrailingWhitespace(int start, int end) {
+		while (end > start && isWhitespace(input[end - 1])) {
+			end--;
+		}
+		return end;
 	}
 	
 	private char currChar() {
-		if (currInputIdx >= input.length()) {
-			throw new StringIndexOutOfBoundsException("Tried to access character beyond input string length");
+		if (currInputIdx >= inputLength && !fill(0)) {
+			throw feeding ? new NeedMoreInputException() : new StringIndexOutOfBoundsException("Tried to access character beyond input string length");
 		}
-		return input.charAt(currInputIdx);
+		return input[currInputIdx];
 	}
 	
 	private char nextChar() {
-		if (currInputIdx >= input.length()) {
-			throw new StringIndexOutOfBoundsException("Tried to peek beyond input string length");
+		if (currInputIdx + 1 >= inputLength && !fill(1)) {
+			throw feeding ? new NeedMoreInputException() : new StringIndexOutOfBoundsException("Tried to peek beyond input string length");
+		}
+		return input[currInputIdx + 1];
+	}
+	
+	private char peekChar(int ahead) {
+		if (currInputIdx + ahead >= inputLength && !fill(ahead)) {
+			throw feeding ? new NeedMoreInputException() : new StringIndexOutOfBoundsException("Tried to peek beyond input string length");
+		}
+		return input[currInputIdx + ahead];
+	}
+	
+	// appends a chunk of fed input, first dropping what was read already: between two readNext() calls
+	// nothing before currInputIdx is needed any more, and elements keep copies of their attribute lists
+	void feed(CharBuffer chars) {
+		if (!feeding) {
+			throw new IllegalStateException("This parser is not fed, or its input has ended");
+		}
+		if (currInputIdx > 0) {
+			System.arraycopy(input, currInputIdx, input, 0, inputLength - currInputIdx);
+			inputLength -= currInputIdx;
+			inputOffset += currInputIdx;
+			currInputIdx = 0;
+		}
+		int needed = inputLength + chars.remaining();
+		if (needed > input.length) {
+			input = Arrays.copyOf(input, Math.max(input.length * 2, needed));
+		}
+		int length = chars.remaining();
+		chars.get(input, inputLength, length);
+		inputLength += length;
+	}
+	
+	// no more input will be fed: from now on the parser reads what is left as it reads a string
+	void endOfFeed() {
+		feeding = false;
+	}
+	
+	// Whether the fed input holds all that the next readNext() reads, so that a step is never left
+	// halfway: the element path, the data and the listener are only changed by complete steps. This
+	// follows readNext() through the prolog, comments and whitespace, then one closing tag, one
+	// start tag with the text up to the next tag, or one run of text; it may wait for a little more
+	// input than the step reads, never for less.
+	private boolean isStepAvailable() {
+		int idx = skipCommentsAvailable(currInputIdx);
+		if (idx < 0 || idx + 1 >= inputLength) { // readNext() looks at two chars
+			return false;
 		}
-		return input.charAt(currInputIdx + 1);
+		if (input[idx] != '<') {
+			return findAvailable('<', idx, 0); // data up to the next tag
+		} else if (input[idx + 1] == '/') {
+			return findAvailable('>', idx, 0);
+		}
+		
+		int close = idx + 1;
+		boolean quoted = false;
+		while (close < inputLength && (quoted || input[close] != '>')) {
+			if (input[close] == '"') {
+				quoted = !quoted;
+			}
+			close++;
+		}
+		if (close == inputLength) {
+			return false;
+		}
+		if (input[close - 1] == '/') {
+			return true;
+		}
+		idx = skipCommentsAvailable(close + 1); // the element's first comment and text are read with it
+		return idx >= 0 && findAvailable('<', idx, 1);
+	}
+	
+	// whether c and the given number of chars after it are in the input from idx; a search that runs
+	// out resumes where it stopped when the next call starts at the same place, so that a long text
+	// fed in many chunks is only scanned once
+	private boolean findAvailable(char c, int idx, int after) {
+		long start = inputOffset + idx;
+		int found = indexOf(c, start == searchFrom ? (int) (searchedTo - inputOffset) : idx);
+		if (found >= 0 && found + after < inputLength) {
+			return true;
+		}
+		searchFrom = start;
+		searchedTo = inputOffset + (found >= 0 ? found : inputLength);
+		return false;
+	}
+	
+	// index past the whitespace, prolog and complete comments from idx, -1 when one is incomplete
+	private int skipCommentsAvailable(int idx) {
+		while (idx < inputLength) {
+			if (isWhitespace(input[idx])) {
+				idx++;
+			} else if (input[idx] != '<') {
+				return idx;
+			} else if (idx + 1 >= inputLength) {
+				return -1;
+			} else if (input[idx + 1] == '?') {
+				int end = indexOf("?>", idx + 2);
+				if (end < 0) {
+					return -1;
+				}
+				idx = end + 2;
+			} else if (input[idx + 1] == '!') { // readNext() reads any "<!" as a comment, up to a '-'
+				int end = indexOf("-->", idx + 4);
+				if (end < 0) {
+					return -1;
+				}
+				idx = end + 3;
+			} else {
+				return idx;
+			}
+		}
+		return idx;
+	}
+	
+	private int indexOf(char c, int from) {
+		for (int i = from; i < inputLength; i++) {
+			if (input[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private int indexOf(String s, int from) {
+		for (int i = from; i + s.length() <= inputLength; i++) {
+			int matched = 0;
+			while (matched < s.length() && input[i + matched] == s.charAt(matched)) {
+				matched++;
+			}
+			if (matched == s.length()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	// slides the window forward until input[currInputIdx + ahead] is available, keeping the token being
+	// scanned; the window only grows when a single token does not fit in it
+	private boolean fill(int ahead) {
+		if (source == null) {
+			return false;
+		}
+		int keep = Math.min(tokenStart >= 0 ? tokenStart : currInputIdx, inputLength);
+		if (keep > 0) {
+			System.arraycopy(input, keep, input, 0, inputLength - keep);
+			inputLength -= keep;
+			inputOffset += keep;
+			currInputIdx -= keep;
+			if (tokenStart >= 0) {
+				tokenStart -= keep;
+			}
+		}
+		
+		while (currInputIdx + ahead >= inputLength) {
+			if (inputLength == input.length) {
+				input = Arrays.copyOf(input, input.length * 2);
+			}
+			int read;
+			try {
+				read = source.read(input, inputLength, input.length - inputLength);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (read < 0) {
+				source = null;
+				return false;
+			}
+			inputLength += read;
+		}
+		return true;
+	}
+	
+	public SymbolTable getSymbolTable() {
+		return this.symbols;
+	}
+	
+	// parsers sharing a table give equal names the same String instance and the same id
+	public void setSymbolTable(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+	
+	public EntityDecoder getEntityDecoder() {
+		return this.entities;
+	}
+	
+	// lets several parsers share the entities registered on one decoder
+	public void setEntityDecoder(EntityDecoder entities) {
+		this.entities = entities;
+		this.installedEntities = entities;
 	}
 	
+	// parsers share the predefined entities until one is registered, which lasts until reset()
+	public void registerEntity(String name, String replacement) {
+		if (this.entities == EntityDecoder.PREDEFINED) {
+			this.entities = new EntityDecoder();
+		}
+		this.entities.register(name, replacement);
+	}
+	
+	public ParserMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	// null turns the metrics off again
+	public void setMetrics(ParserMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	// When set, an element that ends goes back to a pool owned by the parser and is reused for a later
+	// start tag, with its attribute map and buffers, so that parsing makes almost no garbage. An element
+	// is then only valid while it is open, or until elementEnded returns for listeners and QueryEngine
+	// handlers: anything kept longer must be a copy(), and so must its attribute map.
+	public void setRecycleElements(boolean recycle) {
+		this.pool = recycle ? new Element[16] : null;
+		this.pooled = 0;
+	}
+	
+	public boolean isRecyclingElements() {
+		return this.pool != null;
+	}
+	
+	void setListener(ElementListener listener) {
+		this.listener = listener;
+	}
+	
+	// When set, the text of an element is kept exactly, and text interrupted by children keeps the
+	// whitespace around each fragment: "<a>say <b/> world </a>" has the data "say  world ", not "sayworld".
+	// Whitespace-only text between tags becomes data as well.
+	public void setPreserveWhitespace(boolean preserveWhitespace) {
+		this.preserveWhitespace = preserveWhitespace;
+	}
+	
+	// null accepts every element
+	public void setElementFilter(ElementFilter filter) {
+		this.filter = filter;
+	}
+	
+	public boolean hasMoreInput() {
+		return currInputIdx < inputLength || fill(0);
+	}
+	
+	// use getCurrInputOffset() for documents that may be larger than 2 GB
 	public int getCurrInputIdx() {
-		return this.currInputIdx;
+		return Math.toIntExact(getCurrInputOffset());
+	}
+	
+	public long getCurrInputOffset() {
+		return inputOffset + this.currInputIdx;
 	}
 
 	public boolean hasCurrentElement() {
-		return !this.stack.isEmpty();
+		return this.path.getDepth() > 0;
 	}
 	
 	public Element getCurrentElement() {
 		if (!hasCurrentElement()) {
 			throw new EmptyStackException();
 		}
-		return this.stack.peek();
+		return this.path.peek();
 	}
 	
 	public Map<String, String> getCurrentAttributes() {
@@ -238,11 +1068,11 @@ public class Parser {
 	}
 	
 	public String getPath() {
-		String result = "/";
-		for (int i = 0; i < path.size(); i++) {
-			String curr = path.get(i);
-			result += (i != path.size() - 1) ? curr + "/" : curr;
-		}
-		return result;
+		return path.toString();
+	}
+	
+	// live view of the path, updated in place as the parser moves on
+	public ElementPath getPathView() {
+		return path;
 	}
 }
\ No newline at end of file
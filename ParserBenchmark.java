@@ -0,0 +1,517 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Self-contained benchmark suite: every corpus is parsed start to finish through readNext(), and
+// reported as MB/s, ns per element and bytes allocated per element (the per-thread allocation
+// counter, which is what JMH's GC profiler reports as gc.alloc.rate.norm). The best time of the
+// measured iterations is kept, after warmup iterations that let the JIT settle.
+// Usage: java ParserBenchmark [scale] where scale multiplies the corpus sizes (default 1).
+public class ParserBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURED_ITERATIONS = 10;
+
+	static class Corpus {
+		String name;
+		String text;
+		int elements;
+
+		Corpus(String name, String text, int elements) {
+			this.name = name;
+			this.text = text;
+			this.elements = elements;
+		}
+	}
+
+	public static void main(String[] args) {
+		int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		List<Corpus> corpora = generateCorpora(scale);
+
+		System.out.printf("%-14s %8s %10s %12s %12s%n", "corpus", "MB", "MB/s", "ns/element", "B/element");
+		for (Corpus corpus : corpora) {
+			benchmark(corpus);
+		}
+
+		System.out.println();
+		Corpus orders = find(corpora, "orders");
+		benchmarkParallel(orders.text);
+		benchmarkSkipping(orders.text);
+		benchmarkMetrics(orders.text);
+		benchmarkRecycling(orders);
+		benchmarkAttributes(orders);
+		benchmarkAttributes(find(corpora, "wide-attrs"));
+		benchmarkCursor(orders);
+		benchmarkFeed(orders.text, 1500);
+		benchmarkPush(orders.text, 1);
+		benchmarkPush(orders.text, 256);
+		benchmarkBatch(generateMessages(50000 * scale));
+		benchmarkScanning("text-heavy", generateTextHeavy(300 * scale).text);
+		benchmarkScanning("markup-heavy", generateMarkupHeavy(100000 * scale).text);
+	}
+
+	static List<Corpus> generateCorpora(int scale) {
+		List<Corpus> corpora = new ArrayList<Corpus>();
+		corpora.add(generateOrders(20000 * scale));
+		corpora.add(generateDeepNesting(100 * scale, 200));
+		Corpus veryDeep = generateDeepNesting(4 * scale, 5000);
+		veryDeep.name = "very-deep";
+		corpora.add(veryDeep);
+		corpora.add(generateWideAttributes(10000 * scale, 20));
+		corpora.add(generateTextHeavy(300 * scale));
+		corpora.add(generateMixedContent(10 * scale, 2000));
+		corpora.add(generateEntityHeavy(20000 * scale));
+		corpora.add(generateCommentHeavy(20000 * scale));
+		corpora.add(generateSelfClosing(100000 * scale));
+		return corpora;
+	}
+
+	private static Corpus find(List<Corpus> corpora, String name) {
+		for (Corpus corpus : corpora) {
+			if (corpus.name.equals(name)) {
+				return corpus;
+			}
+		}
+		throw new IllegalArgumentException("No corpus named " + name);
+	}
+
+	private static void benchmark(Corpus corpus) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			parseAll(corpus.text);
+		}
+
+		long bestNanos = Long.MAX_VALUE;
+		long allocated = 0;
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			long allocBefore = allocatedBytes();
+			long start = System.nanoTime();
+			parseAll(corpus.text);
+			bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			allocated += allocatedBytes() - allocBefore;
+		}
+
+		double megabytes = corpus.text.length() / (1024.0 * 1024.0);
+		System.out.printf("%-14s %8.2f %10.2f %12.1f %12.1f%n", corpus.name, megabytes,
+						  megabytes / (bestNanos / 1e9), (double) bestNanos / corpus.elements,
+						  (double) allocated / MEASURED_ITERATIONS / corpus.elements);
+	}
+
+	// scaling of ParallelParser from one worker up to the number of available cores
+	private static void benchmarkParallel(String input) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int workers = 1; workers <= cores; workers = workers < cores ? Math.min(workers * 2, cores) : cores + 1) {
+			ForkJoinPool pool = new ForkJoinPool(workers);
+			for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+				parseParallel(input, pool);
+			}
+			long bestNanos = Long.MAX_VALUE;
+			for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+				long start = System.nanoTime();
+				parseParallel(input, pool);
+				bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			}
+			pool.shutdown();
+			System.out.printf("parallel, %d worker(s): %.2f MB/s%n", workers, input.length() / (1024.0 * 1024.0) / (bestNanos / 1e9));
+		}
+	}
+
+	// selective extraction: every order but one in a hundred is skipped through the element filter
+	private static void benchmarkSkipping(String input) {
+		long fullNanos = Long.MAX_VALUE;
+		long skippingNanos = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			parseAll(input);
+			long middle = System.nanoTime();
+			Parser parser = new Parser(input);
+			parser.setElementFilter(elt -> !elt.getName().equals("order") || elt.getAttribute("id").endsWith("00"));
+			while (parser.hasMoreInput()) {
+				parser.readNext();
+				if (!parser.hasCurrentElement()) {
+					break;
+				}
+			}
+			long end = System.nanoTime();
+			if (i >= WARMUP_ITERATIONS) {
+				fullNanos = Math.min(fullNanos, middle - start);
+				skippingNanos = Math.min(skippingNanos, end - middle);
+			}
+		}
+		double megabytes = input.length() / (1024.0 * 1024.0);
+		System.out.printf("skipping: full parse %.2f MB/s, skipping 99%% of orders %.2f MB/s%n",
+						  megabytes / (fullNanos / 1e9), megabytes / (skippingNanos / 1e9));
+	}
+	
+	// cost of turning the metrics on, with and without the method timers
+	private static void benchmarkMetrics(String input) {
+		long plainNanos = Long.MAX_VALUE;
+		long countedNanos = Long.MAX_VALUE;
+		long timedNanos = Long.MAX_VALUE;
+		ParserMetrics metrics = null;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			parseAll(input);
+			long counted = System.nanoTime();
+			parseMeasured(input, new ParserMetrics(false));
+			long timed = System.nanoTime();
+			metrics = new ParserMetrics(true);
+			parseMeasured(input, metrics);
+			long end = System.nanoTime();
+			if (i >= WARMUP_ITERATIONS) {
+				plainNanos = Math.min(plainNanos, counted - start);
+				countedNanos = Math.min(countedNanos, timed - counted);
+				timedNanos = Math.min(timedNanos, end - timed);
+			}
+		}
+		double megabytes = input.length() / (1024.0 * 1024.0);
+		System.out.printf("metrics: off %.2f MB/s, counters %.2f MB/s, counters and timers %.2f MB/s%n  %s%n",
+						  megabytes / (plainNanos / 1e9), megabytes / (countedNanos / 1e9), megabytes / (timedNanos / 1e9),
+						  metrics);
+	}
+
+	private static void parseMeasured(String input, ParserMetrics metrics) {
+		Parser parser = new Parser(input);
+		parser.setMetrics(metrics);
+		while (parser.hasMoreInput()) {
+			parser.readNext();
+			if (!parser.hasCurrentElement()) {
+				break;
+			}
+		}
+	}
+	
+	// garbage per element in steady state, one parser reset for every run, with and without recycling
+	private static void benchmarkRecycling(Corpus corpus) {
+		for (boolean recycle : new boolean[] { false, true }) {
+			Parser parser = new Parser("");
+			parser.setRecycleElements(recycle);
+			long bestNanos = Long.MAX_VALUE;
+			long allocated = 0;
+			for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+				long allocBefore = allocatedBytes();
+				long start = System.nanoTime();
+				parser.reset(corpus.text);
+				while (parser.hasMoreInput()) {
+					parser.readNext();
+					if (!parser.hasCurrentElement()) {
+						break;
+					}
+				}
+				if (i >= WARMUP_ITERATIONS) {
+					bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+					allocated += allocatedBytes() - allocBefore;
+				}
+			}
+			System.out.printf("%s: %.2f MB/s, %.1f B/element%n", recycle ? "recycled elements" : "new elements",
+							  corpus.text.length() / (1024.0 * 1024.0) / (bestNanos / 1e9),
+							  (double) allocated / MEASURED_ITERATIONS / corpus.elements);
+		}
+	}
+	
+	// every attribute list parsed, through the Map view as most callers read it
+	private static void benchmarkAttributes(Corpus corpus) {
+		long bestNanos = Long.MAX_VALUE;
+		long allocated = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long allocBefore = allocatedBytes();
+			long start = System.nanoTime();
+			Parser parser = new Parser(corpus.text);
+			parser.setElementFilter(elt -> elt.getAttributes().get("id") != null || elt.getAttributes().isEmpty());
+			while (parser.hasMoreInput()) {
+				parser.readNext();
+				if (!parser.hasCurrentElement()) {
+					break;
+				}
+			}
+			if (i >= WARMUP_ITERATIONS) {
+				bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+				allocated += allocatedBytes() - allocBefore;
+			}
+		}
+		System.out.printf("attributes, %s: %.2f MB/s, %.1f B/element%n", corpus.name,
+						  corpus.text.length() / (1024.0 * 1024.0) / (bestNanos / 1e9),
+						  (double) allocated / MEASURED_ITERATIONS / corpus.elements);
+	}
+	
+	// the corpus fed to a FeedParser in chunks of the given size, as off a network
+	private static void benchmarkFeed(String input, int chunkSize) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		long bestNanos = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			FeedParser feed = new FeedParser();
+			int fed = 0;
+			while (true) {
+				if (feed.readNext() == Parser.NextInputType.NEED_MORE_INPUT) {
+					int length = Math.min(chunkSize, bytes.length - fed);
+					feed.feed(bytes, fed, length);
+					fed += length;
+				} else if (!feed.getParser().hasCurrentElement()) {
+					break;
+				}
+			}
+			if (i >= WARMUP_ITERATIONS) {
+				bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			}
+		}
+		System.out.printf("fed in %d-byte chunks: %.2f MB/s%n", chunkSize, input.length() / (1024.0 * 1024.0) / (bestNanos / 1e9));
+	}
+	
+	// the same corpus read event by event through XmlCursor
+	private static void benchmarkCursor(Corpus corpus) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			readAll(corpus.text);
+		}
+		long bestNanos = Long.MAX_VALUE;
+		long allocated = 0;
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			long allocBefore = allocatedBytes();
+			long start = System.nanoTime();
+			readAll(corpus.text);
+			bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			allocated += allocatedBytes() - allocBefore;
+		}
+		double megabytes = corpus.text.length() / (1024.0 * 1024.0);
+		System.out.printf("cursor, %s: %.2f MB/s, %.1f B/element%n", corpus.name, megabytes / (bestNanos / 1e9),
+						  (double) allocated / MEASURED_ITERATIONS / corpus.elements);
+	}
+	
+	private static void readAll(String input) {
+		XmlCursor cursor = new XmlCursor(new Parser(input));
+		while (cursor.next() != XmlCursor.EventType.END_DOCUMENT) {
+		}
+	}
+	
+	// PushParser with a handler that only counts, dispatching each event or batches of events
+	private static void benchmarkPush(String input, int batchSize) {
+		int[] counts = new int[3];
+		ContentHandler handler = new ContentHandler() {
+			@Override
+			public void startElement(String name, int nameId, char[] buffer, int attributesOffset, int attributesLength) {
+				counts[0]++;
+			}
+			
+			@Override
+			public void endElement(String name, int nameId) {
+				counts[1]++;
+			}
+			
+			@Override
+			public void characters(char[] buffer, int offset, int length) {
+				counts[2] += length;
+			}
+		};
+		long bestNanos = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			new PushParser(new Parser(input), handler, batchSize).run();
+			if (i >= WARMUP_ITERATIONS) {
+				bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			}
+		}
+		System.out.printf("push, batches of %d event(s): %.2f MB/s%n", batchSize, input.length() / (1024.0 * 1024.0) / (bestNanos / 1e9));
+	}
+	
+	// many small documents: a new parser for each one against BatchParser, which pools and resets them
+	private static void benchmarkBatch(List<String> messages) {
+		long bestNanos = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (String message : messages) {
+				parseAll(message);
+			}
+			if (i >= WARMUP_ITERATIONS) {
+				bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			}
+		}
+		System.out.printf("messages, new parser each: %.0f documents/s%n", messages.size() / (bestNanos / 1e9));
+		
+		try (BatchParser batch = new BatchParser()) {
+			BatchParser.Report<Boolean> best = null;
+			for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+				BatchParser.Report<Boolean> report = batch.parseAll(messages, parser -> {
+					while (parser.hasMoreInput()) {
+						parser.readNext();
+						if (!parser.hasCurrentElement()) {
+							break;
+						}
+					}
+					return true;
+				});
+				if (i >= WARMUP_ITERATIONS && (best == null || report.getWallNanos() < best.getWallNanos())) {
+					best = report;
+				}
+			}
+			System.out.println("messages, BatchParser: " + best);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void parseParallel(String input, ForkJoinPool pool) {
+		new ParallelParser(input, pool).parse(parser -> {
+			while (parser.hasMoreInput()) {
+				parser.readNext();
+			}
+			return parser;
+		});
+	}
+
+	// delimiter scanning speed of both engines, on documents dominated by text or by tags
+	private static void benchmarkScanning(String label, String input) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		long parserNanos = Long.MAX_VALUE;
+		long byteParserNanos = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			parseAll(input);
+			long middle = System.nanoTime();
+			parseAll(bytes);
+			long end = System.nanoTime();
+			if (i >= WARMUP_ITERATIONS) {
+				parserNanos = Math.min(parserNanos, middle - start);
+				byteParserNanos = Math.min(byteParserNanos, end - middle);
+			}
+		}
+		double megabytes = bytes.length / (1024.0 * 1024.0);
+		System.out.printf("%s (%.2f MB): Parser %.2f MB/s, ByteParser %.2f MB/s%n", label, megabytes,
+						  megabytes / (parserNanos / 1e9), megabytes / (byteParserNanos / 1e9));
+	}
+
+	private static void parseAll(String input) {
+		Parser parser = new Parser(input);
+		while (parser.hasMoreInput()) {
+			parser.readNext();
+			if (!parser.hasCurrentElement()) {
+				break;
+			}
+		}
+	}
+
+	private static void parseAll(byte[] input) {
+		ByteParser parser = new ByteParser(input);
+		while (parser.hasMoreInput()) {
+			parser.readNext();
+			if (!parser.hasCurrentElement()) {
+				break;
+			}
+		}
+	}
+
+	static Corpus generateOrders(int orders) {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?><root>");
+		for (int i = 0; i < orders; i++) {
+			sb.append("<order id=\"").append(i).append("\" customer=\"customer-").append(i % 97).append("\">");
+			sb.append("<amount>").append(i * 31 % 10000).append("</amount>");
+			sb.append("<note>Deliver to the back door &amp; ring twice</note>");
+			sb.append("<!-- generated -->");
+			sb.append("</order>");
+		}
+		return new Corpus("orders", sb.append("</root>").toString(), orders * 3 + 1);
+	}
+
+	static Corpus generateDeepNesting(int trees, int depth) {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < trees; i++) {
+			for (int d = 0; d < depth; d++) {
+				sb.append("<level").append(d % 10).append('>');
+			}
+			sb.append("leaf");
+			for (int d = depth - 1; d >= 0; d--) {
+				sb.append("</level").append(d % 10).append('>');
+			}
+		}
+		return new Corpus("deep-nesting", sb.append("</root>").toString(), trees * depth + 1);
+	}
+
+	static Corpus generateWideAttributes(int elements, int attributes) {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < elements; i++) {
+			sb.append("<record");
+			for (int a = 0; a < attributes; a++) {
+				sb.append(" attr").append(a).append("=\"value-").append(i).append('-').append(a).append('"');
+			}
+			sb.append("></record>");
+		}
+		return new Corpus("wide-attrs", sb.append("</root>").toString(), elements + 1);
+	}
+
+	static Corpus generateTextHeavy(int paragraphs) {
+		StringBuilder sb = new StringBuilder("<book>");
+		for (int i = 0; i < paragraphs; i++) {
+			sb.append("<p>");
+			for (int j = 0; j < 40; j++) {
+				sb.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor. ");
+			}
+			sb.append("</p>");
+		}
+		return new Corpus("large-text", sb.append("</book>").toString(), paragraphs + 1);
+	}
+
+	// paragraphs whose text is interrupted by thousands of inline children
+	static Corpus generateMixedContent(int paragraphs, int children) {
+		StringBuilder sb = new StringBuilder("<book>");
+		for (int i = 0; i < paragraphs; i++) {
+			sb.append("<p>");
+			for (int j = 0; j < children; j++) {
+				sb.append("some words <b>bold</b> ");
+			}
+			sb.append("</p>");
+		}
+		return new Corpus("mixed-content", sb.append("</book>").toString(), paragraphs * (children + 1) + 1);
+	}
+	
+	static Corpus generateEntityHeavy(int elements) {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < elements; i++) {
+			sb.append("<expr op=\"&lt;&amp;&gt;\">a &lt; b &amp;&amp; c &gt; d &quot;e&quot; &apos;f&apos;</expr>");
+		}
+		return new Corpus("entity-heavy", sb.append("</root>").toString(), elements + 1);
+	}
+
+	// comments avoid '-' in their text, which the parser takes as the start of "-->"
+	static Corpus generateCommentHeavy(int elements) {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < elements; i++) {
+			sb.append("<!-- a comment about the next item --><item>").append(i).append("</item>");
+			sb.append("<!-- and another one, slightly longer than the first -->");
+		}
+		return new Corpus("comment-heavy", sb.append("</root>").toString(), elements + 1);
+	}
+
+	static Corpus generateSelfClosing(int elements) {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < elements; i++) {
+			sb.append("<x/>");
+		}
+		return new Corpus("self-closing", sb.append("</root>").toString(), elements + 1);
+	}
+
+	static Corpus generateMarkupHeavy(int elements) {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < elements; i++) {
+			sb.append("<a x=\"").append(i % 10).append("\"><b>").append(i % 10).append("</b></a>");
+		}
+		return new Corpus("markup-heavy", sb.append("</root>").toString(), elements * 2 + 1);
+	}
+
+	static List<String> generateMessages(int count) {
+		List<String> messages = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			messages.add("<?xml version=\"1.0\"?><order id=\"" + i + "\" customer=\"customer-" + (i % 97) + "\">"
+						 + "<amount>" + (i * 31 % 10000) + "</amount><note>ring twice</note></order>");
+		}
+		return messages;
+	}
+	
+	// allocation counter of the current thread, only available on HotSpot-derived VMs
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,203 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and timers filled in by a Parser while readNext() runs, once the parser is given a
+// metrics object with setMetrics(); a parser without one only pays a null check per call.
+// Timers have to be asked for, as they read the clock several times per element. The read time
+// covers whole readNext() calls, waiting for the input included; the other times are exclusive,
+// an attribute list or data being counted in its own time and not again in the time of the
+// readNextElement that reads it.
+// Only the parsing thread writes the counters, without synchronization: reading them from another
+// thread, through JMX for instance, gives values that may lag slightly behind. Use snapshot() on
+// the parsing thread for a consistent set of values.
+public class ParserMetrics implements ParserMetricsMXBean {
+
+	static final int CLOCK_MASK = 255; // the clock is read once every 256 readNext() calls for the parse rate
+	static final long BUCKET_NANOS = 1_000_000_000L;
+	static final int WINDOW_BUCKETS = 10; // the parse rate covers the last 10 seconds
+
+	final boolean timed; // time readNext() and the methods it calls
+
+	// written by Parser
+	long elements;
+	long attributes;
+	long textLength; // input chars read as data, references and whitespace included
+	long entities; // references replaced in data
+	long comments;
+	int maxDepth;
+	long inputLength; // input chars consumed by readNext()
+	long readNanos;
+	long elementNanos;
+	long attributeNanos;
+	long dataNanos;
+	long reads; // readNext() calls
+	long startNanos; // first readNext(), 0 before
+	long sampleLength; // inputLength at the last sample
+	long[] bucketLengths = new long[WINDOW_BUCKETS]; // input consumed in each second of the window, a ring
+	long[] buckets = newBuckets(); // second since startNanos of each slot of the ring, -1 when unused
+	LongSupplier clock = System::nanoTime; // replaced by tests
+
+	public ParserMetrics() {
+		this(false);
+	}
+
+	public ParserMetrics(boolean timed) {
+		this.timed = timed;
+	}
+
+	// copy of the current values, which no parser updates
+	public ParserMetrics snapshot() {
+		ParserMetrics copy = new ParserMetrics(timed);
+		copy.elements = elements;
+		copy.attributes = attributes;
+		copy.textLength = textLength;
+		copy.entities = entities;
+		copy.comments = comments;
+		copy.maxDepth = maxDepth;
+		copy.inputLength = inputLength;
+		copy.readNanos = readNanos;
+		copy.elementNanos = elementNanos;
+		copy.attributeNanos = attributeNanos;
+		copy.dataNanos = dataNanos;
+		copy.reads = reads;
+		copy.startNanos = startNanos;
+		copy.sampleLength = sampleLength;
+		copy.bucketLengths = bucketLengths.clone();
+		copy.buckets = buckets.clone();
+		copy.clock = clock;
+		return copy;
+	}
+
+	// on the parsing thread, between two readNext() calls
+	public void clear() {
+		elements = attributes = textLength = entities = comments = inputLength = 0;
+		readNanos = elementNanos = attributeNanos = dataNanos = 0;
+		reads = startNanos = sampleLength = 0;
+		maxDepth = 0;
+		Arrays.fill(bucketLengths, 0);
+		Arrays.fill(buckets, -1);
+	}
+	
+	private static long[] newBuckets() {
+		long[] buckets = new long[WINDOW_BUCKETS];
+		Arrays.fill(buckets, -1);
+		return buckets;
+	}
+	
+	// called by the parser on its first readNext()
+	void start() {
+		startNanos = clock.getAsLong();
+	}
+	
+	// called by the parser every 256 readNext() calls: the input consumed since the last sample is
+	// added to the current second
+	void sample() {
+		long bucket = (clock.getAsLong() - startNanos) / BUCKET_NANOS;
+		int slot = (int) (bucket % WINDOW_BUCKETS);
+		if (buckets[slot] != bucket) {
+			buckets[slot] = bucket;
+			bucketLengths[slot] = 0;
+		}
+		bucketLengths[slot] += inputLength - sampleLength;
+		sampleLength = inputLength;
+	}
+
+	// registers these metrics with the platform MBean server as "xmlparser:type=Parser,name=<name>"
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("xmlparser:type=Parser,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public static void unregister(ObjectName objectName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	@Override
+	public long getElementCount() {
+		return elements;
+	}
+
+	@Override
+	public long getAttributeCount() {
+		return attributes;
+	}
+
+	@Override
+	public long getTextLength() {
+		return textLength;
+	}
+
+	@Override
+	public long getEntityCount() {
+		return entities;
+	}
+
+	@Override
+	public long getCommentCount() {
+		return comments;
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	@Override
+	public long getInputLength() {
+		return inputLength;
+	}
+
+	@Override
+	public long getReadNanos() {
+		return readNanos;
+	}
+
+	@Override
+	public long getElementNanos() {
+		return elementNanos;
+	}
+
+	@Override
+	public long getAttributeNanos() {
+		return attributeNanos;
+	}
+
+	@Override
+	public long getDataNanos() {
+		return dataNanos;
+	}
+
+	// input consumed per second over the last 10 seconds of wall-clock time, input chars counted as
+	// bytes as in ParserBenchmark. The window ends when the rate is read, so that it drops when the
+	// input arrives slowly or is consumed slowly, down to 0 when readNext() is no longer called. The
+	// input is counted every 256 readNext() calls, and the rate is 0 until then.
+	@Override
+	public double getBytesPerSecond() {
+		if (startNanos == 0) {
+			return 0;
+		}
+		long elapsed = clock.getAsLong() - startNanos;
+		long current = elapsed / BUCKET_NANOS;
+		long length = 0;
+		for (int slot = 0; slot < WINDOW_BUCKETS; slot++) {
+			if (buckets[slot] > current - WINDOW_BUCKETS && buckets[slot] <= current) {
+				length += bucketLengths[slot];
+			}
+		}
+		long window = elapsed - Math.max(0, current - WINDOW_BUCKETS + 1) * BUCKET_NANOS;
+		return window <= 0 ? 0 : length / (window / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d elements, %d attributes, %d text chars, %d entities, %d comments, max depth %d, "
+							 + "%.2f MB/s (element %.1f ms, attributes %.1f ms, data %.1f ms, total %.1f ms)",
+							 elements, attributes, textLength, entities, comments, maxDepth,
+							 getBytesPerSecond() / (1024.0 * 1024.0), elementNanos / 1e6, attributeNanos / 1e6,
+							 dataNanos / 1e6, readNanos / 1e6);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,16 @@
+// Management interface of ParserMetrics, so that a registered parser shows up in JConsole and any
+// JMX monitoring agent. Times are in nanoseconds; lengths count input chars.
+public interface ParserMetricsMXBean {
+	long getElementCount();
+	long getAttributeCount();
+	long getTextLength();
+	long getEntityCount();
+	long getCommentCount();
+	int getMaxDepth();
+	long getInputLength();
+	long getReadNanos();
+	long getElementNanos();
+	long getAttributeNanos();
+	long getDataNanos();
+	double getBytesPerSecond();
+}
\ No newline at end of file
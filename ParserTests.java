@@ -1,6 +1,19 @@
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+
 public class ParserTests {
 
 	private Parser sut;
@@ -363,6 +376,430 @@ public class ParserTests {
 		assertEquals(sut.getCurrInputIdx(), input.length());
 	}
 	
+	@Test
+	public void read_from_reader_across_window_boundaries() {
+		input = "<root><order id=\"1&amp;11\"><note>Deliver &lt;now&gt;</note></order></root>";
+		sut = new Parser(new StringReader(input), 4);
+		
+		sut.readNext();
+		assertEquals(sut.getPath(), "/root");
+		
+		sut.readNext();
+		Element expected = new Element("order");
+		expected.addAttribute("id", "1&11");
+		
+		assertEquals(getTopName(), expected.getName());
+		assertEquals(getTopAttributesString(), expected.getAttributes().toString());
+		
+		sut.readNext();
+		assertEquals(sut.getPath(), "/root/order/note");
+		assertEquals(getTopData(), "Deliver <now>");
+		
+		sut.readNext();
+		sut.readNext();
+		sut.readNext();
+		
+		assertFalse(sut.hasCurrentElement());
+		assertFalse(sut.hasMoreInput());
+		assertEquals(sut.getCurrInputIdx(), input.length());
+	}
+	
+	@Test
+	public void read_from_input_stream_uses_prolog_encoding() throws IOException {
+		input = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><name>Ren\u00e9</name>";
+		sut = new Parser(new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1)));
+		
+		sut.readNext();
+		
+		assertEquals(getTopName(), "name");
+		assertEquals(getTopData(), "Ren\u00e9");
+	}
+	
+	@Test
+	public void read_from_channel_detects_utf16_byte_order_mark() throws IOException {
+		input = "\ufeff<name>Ren\u00e9</name>";
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_16BE);
+		sut = new Parser(Channels.newChannel(new ByteArrayInputStream(bytes)));
+		
+		sut.readNext();
+		
+		assertEquals(getTopName(), "name");
+		assertEquals(getTopData(), "Ren\u00e9");
+	}
+	
+	@Test
+	public void read_from_mapped_file_across_mapping_windows() throws IOException {
+		input = "<root><name>Ren\u00e9 \ud83d\ude00 Steiner</name></root>";
+		Path file = Files.createTempFile("parser", ".xml");
+		try {
+			Files.write(file, input.getBytes(StandardCharsets.UTF_8));
+			sut = new Parser(new MappedFileReader(file, 5), 3);
+			
+			sut.readNext();
+			sut.readNext();
+			
+			assertEquals(sut.getPath(), "/root/name");
+			assertEquals(getTopData(), "Ren\u00e9 \ud83d\ude00 Steiner");
+			
+			sut.readNext();
+			sut.readNext();
+			
+			assertFalse(sut.hasMoreInput());
+			assertEquals(sut.getCurrInputOffset(), input.length());
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void attribute_lookup_without_building_attribute_map() {
+		input = "<order id = \"1&amp;11\" customer=\"a&lt;b\"  ><amount>150</amount></order>";
+		sut = new Parser(input);
+		
+		sut.readNext();
+		Element order = sut.getCurrentElement();
+		
+		assertTrue(order.hasAttributes());
+		assertEquals(order.getAttribute("customer"), "a<b");
+		assertEquals(order.getAttribute("id"), "1&11");
+		assertNull(order.getAttribute("amount"));
+		
+		order.addAttribute("status", "new");
+		assertEquals(order.getAttributes().size(), 3);
+		assertEquals(order.getAttribute("status"), "new");
+		
+		sut.readNext();
+		assertFalse(sut.getCurrentElement().hasAttributes());
+		assertNull(sut.getCurrentElement().getAttribute("id"));
+	}
+	
+	@Test
+	public void attributes_stay_readable_after_reader_window_slides() {
+		input = "<root><order id=\"1111\" customer=\"theo\"><amount>150</amount><amount>20</amount></order></root>";
+		sut = new Parser(new StringReader(input), 8);
+		
+		sut.readNext();
+		sut.readNext();
+		Element order = sut.getCurrentElement();
+		while (sut.hasMoreInput()) {
+			sut.readNext();
+		}
+		
+		assertEquals(order.getAttribute("customer"), "theo");
+		assertEquals(order.getAttributes().get("id"), "1111");
+	}
+	
+	@Test
+	public void names_are_interned_in_shared_symbol_table() {
+		input = "<root><order id=\"1\"></order><order id=\"2\"></order></root>";
+		sut = new Parser(input);
+		Parser other = new Parser("<order id=\"3\"></order>");
+		other.setSymbolTable(sut.getSymbolTable());
+		
+		sut.readNext();
+		sut.readNext();
+		Element first = sut.getCurrentElement();
+		sut.readNext();
+		sut.readNext();
+		Element second = sut.getCurrentElement();
+		other.readNext();
+		Element third = other.getCurrentElement();
+		
+		assertSame(first.getName(), second.getName());
+		assertSame(first.getName(), third.getName());
+		assertEquals(first.getNameId(), third.getNameId());
+		assertEquals(sut.getSymbolTable().lookup("order"), first.getNameId());
+		assertEquals(sut.getSymbolTable().lookup("missing"), -1);
+		assertSame(first.getAttributes().keySet().iterator().next(), third.getAttributes().keySet().iterator().next());
+	}
+	
+	@Test
+	public void path_view_follows_the_parser() {
+		input = "<root><order><note/><amount>3</amount></order></root>";
+		sut = new Parser(input);
+		ElementPath view = sut.getPathView();
+		
+		sut.readNext();
+		sut.readNext();
+		assertTrue(view.contentEquals("/root/order"));
+		assertEquals(view.getDepth(), 2);
+		assertEquals(view.getName(1).toString(), "order");
+		assertEquals(view.getNameId(1), sut.getSymbolTable().lookup("order"));
+		assertSame(sut.getPath(), sut.getPath());
+		
+		sut.readNext(); // self-closing note is never on the path
+		assertEquals(view.toString(), "/root/order");
+		sut.readNext();
+		assertEquals(view.toString(), "/root/order/amount");
+		assertEquals(view.getNameIds()[2], sut.getSymbolTable().lookup("amount"));
+		sut.readNext();
+		sut.readNext();
+		sut.readNext();
+		assertEquals(view.toString(), "/");
+		assertEquals(view.getDepth(), 0);
+	}
+	
+	@Test
+	public void skip_current_element_jumps_past_its_subtree() {
+		input = "<root><big a=\"x > y\"><!-- </big> --><b>x &amp; y</b><c/><?pi </big>?><![CDATA[</big>]]>"
+			  + "<b><b></b></b></big><next>1</next></root>";
+		sut = new Parser(new StringReader(input), 16);
+		
+		sut.readNext();
+		sut.readNext();
+		assertEquals(getTopName(), "big");
+		sut.skipCurrentElement();
+		assertEquals(sut.getPath(), "/root");
+		
+		sut.readNext();
+		assertEquals(sut.getPath(), "/root/next");
+		assertEquals(sut.getCurrentData(), "1");
+	}
+	
+	@Test
+	public void filtered_elements_are_skipped_unparsed() {
+		input = "<root><order id=\"1\"><amount>1</amount></order><order id=\"2\"><amount>2</amount></order></root>";
+		sut = new Parser(input);
+		sut.setElementFilter(elt -> !"1".equals(elt.getAttribute("id")));
+		
+		sut.readNext();
+		assertEquals(sut.readNext(), Parser.NextInputType.ALT_CLOSING);
+		assertEquals(sut.getPath(), "/root");
+		sut.readNext();
+		assertEquals(sut.getPath(), "/root/order");
+		assertEquals(sut.getCurrentAttributes().get("id"), "2");
+		sut.readNext();
+		assertEquals(sut.getPath(), "/root/order/amount");
+		assertEquals(sut.getCurrentData(), "2");
+	}
+	
+	@Test
+	public void reset_starts_over_without_touching_previous_elements() {
+		sut = new Parser("<order id=\"1\"><amount>10</amount></order>");
+		sut.readNext();
+		Element first = sut.getCurrentElement();
+		sut.readNext();
+		assertEquals(sut.getPath(), "/order/amount");
+		
+		sut.reset("<note>hi</note>");
+		assertEquals(sut.getPath(), "/");
+		assertFalse(sut.hasCurrentElement());
+		sut.readNext();
+		assertEquals(sut.getPath(), "/note");
+		assertEquals(sut.getCurrentData(), "hi");
+		assertEquals(first.getAttribute("id"), "1");
+		
+		sut.reset("<a/>");
+		assertEquals(sut.readNext(), Parser.NextInputType.ALT_CLOSING);
+		assertFalse(sut.hasMoreInput());
+	}
+	
+	@Test
+	public void deep_nesting_keeps_elements_and_path_in_step() {
+		StringBuilder sb = new StringBuilder();
+		for (int d = 0; d < 100; d++) {
+			sb.append("<l").append(d).append('>');
+		}
+		sb.append("leaf");
+		for (int d = 99; d >= 0; d--) {
+			sb.append("</l").append(d).append('>');
+		}
+		sut = new Parser(sb.toString());
+		
+		for (int d = 0; d < 99; d++) {
+			sut.readNext();
+		}
+		assertEquals(sut.readNext(), Parser.NextInputType.DATA);
+		assertEquals(getTopName(), "l99");
+		assertEquals(sut.getCurrentData(), "leaf");
+		assertEquals(sut.getPathView().getDepth(), 100);
+		assertTrue(sut.getPath().endsWith("/l98/l99"));
+		for (int d = 99; d > 0; d--) {
+			sut.readNext();
+			assertEquals(getTopName(), "l" + (d - 1));
+		}
+		sut.readNext();
+		assertFalse(sut.hasCurrentElement());
+		assertEquals(sut.getPath(), "/");
+	}
+	
+	@Test
+	public void mixed_content_is_kept_as_segments() {
+		input = "<example>say <emph>hello </emph>world <!-- c --> again</example>";
+		sut = new Parser(input);
+		sut.setPreserveWhitespace(true);
+		
+		sut.readNext();
+		Element example = sut.getCurrentElement();
+		while (sut.hasCurrentElement()) {
+			sut.readNext();
+		}
+		
+		assertEquals(example.getDataSegments(), List.of("say ", "world ", " again"));
+		assertEquals(example.getData(), "say world  again");
+		
+		sut = new Parser(input);
+		sut.readNext();
+		example = sut.getCurrentElement();
+		while (sut.hasCurrentElement()) {
+			sut.readNext();
+		}
+		assertEquals(example.getDataSegments(), List.of("say", "world", "again"));
+		assertEquals(example.getData(), "sayworldagain");
+	}
+	
+	@Test
+	public void character_references_and_custom_entities_are_decoded() {
+		input = "<root note=\"&#169; &copy;\">&#x20AC;&#8364; &#x1F600; AT&T &unknown; &amp;&copy;</root>";
+		sut = new Parser(new StringReader(input), 8);
+		sut.registerEntity("copy", "\u00a9");
+		
+		sut.readNext();
+		assertEquals(sut.getCurrentData(), "\u20ac\u20ac \ud83d\ude00 AT&T &unknown; &\u00a9");
+		assertEquals(sut.getCurrentElement().getAttribute("note"), "\u00a9 \u00a9");
+		assertSame(new Parser("<a/>").getEntityDecoder(), EntityDecoder.PREDEFINED);
+		assertThrows(UnsupportedOperationException.class, () -> EntityDecoder.PREDEFINED.register("x", "y"));
+		assertEquals(EntityDecoder.PREDEFINED.decode("&#0; &#xD800; &#12a; &lt;"), "&#0; &#xD800; &#12a; <");
+	}
+	
+	@Test
+	public void metrics_count_what_readNext_reads() throws Exception {
+		input = "<root a=\"1\" b=\"2\"><!-- c --><item id=\"x\">one &amp; two</item><item/><deep><er>x</er></deep></root>";
+		sut = new Parser(input);
+		ParserMetrics metrics = new ParserMetrics(true);
+		sut.setMetrics(metrics);
+		while (sut.hasMoreInput()) {
+			sut.readNext();
+		}
+		
+		ParserMetrics snapshot = metrics.snapshot();
+		assertEquals(snapshot.getElementCount(), 5);
+		assertEquals(snapshot.getAttributeCount(), 3);
+		assertEquals(snapshot.getCommentCount(), 1);
+		assertEquals(snapshot.getEntityCount(), 1);
+		assertEquals(snapshot.getTextLength(), "one &amp; two".length() + "x".length());
+		assertEquals(snapshot.getMaxDepth(), 3);
+		assertEquals(snapshot.getInputLength(), input.length());
+		assertTrue(snapshot.getReadNanos() >= snapshot.getElementNanos() + snapshot.getDataNanos());
+		assertEquals(snapshot.getBytesPerSecond(), 0.0); // not sampled before 256 readNext() calls
+		
+		ObjectName name = metrics.register("metrics-test");
+		assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ElementCount"), 5L);
+		ParserMetrics.unregister(name);
+		
+		sut.reset("<r>" + "<i/>".repeat(300) + "</r>");
+		while (sut.hasMoreInput()) {
+			sut.readNext();
+		}
+		assertEquals(metrics.getElementCount(), 306);
+		assertTrue(metrics.getBytesPerSecond() > 0);
+		
+		metrics.clear();
+		sut.setMetrics(null);
+		sut.reset(input);
+		sut.readNext();
+		assertEquals(metrics.getElementCount(), 0);
+	}
+	
+	@Test
+	public void parse_rate_falls_when_the_input_stalls() {
+		long[] now = { 1_000 };
+		ParserMetrics metrics = new ParserMetrics();
+		metrics.clock = () -> now[0];
+		sut = new Parser("<r>" + "<i/>".repeat(600) + "</r>");
+		sut.setMetrics(metrics);
+		sut.readNext();
+		now[0] += 500_000_000L;
+		while (sut.hasMoreInput()) {
+			sut.readNext();
+		}
+		
+		double rate = metrics.getBytesPerSecond();
+		assertTrue(rate > 0);
+		now[0] += 4_500_000_000L; // no readNext() for 4.5 seconds
+		assertTrue(Math.abs(metrics.getBytesPerSecond() - rate / 10) < rate / 1e6);
+		now[0] += 5_500_000_000L; // the last input was read more than 10 seconds ago
+		assertEquals(metrics.getBytesPerSecond(), 0.0);
+	}
+	
+	@Test
+	public void recycled_elements_are_reused_and_copies_are_kept() {
+		input = "<r><a x=\"1\">one &amp; two</a><b y=\"&lt;2\">say <c/> world </b></r>";
+		for (Parser parser : List.of(new Parser(input), new Parser(new StringReader(input), 8))) {
+			sut = parser;
+			sut.setRecycleElements(true);
+			assertTrue(sut.isRecyclingElements());
+			
+			sut.readNext();
+			sut.readNext();
+			Element a = sut.getCurrentElement();
+			assertEquals(getTopData(), "one & two");
+			assertEquals(a.getAttribute("x"), "1");
+			Element kept = a.copy();
+			sut.readNext();
+			
+			sut.readNext();
+			assertSame(sut.getCurrentElement(), a); // a ended and came back from the pool
+			assertEquals(getTopName(), "b");
+			assertEquals(getTopAttributesString(), "{y=<2}");
+			assertEquals(getTopData(), "say");
+			sut.readNext(); // <c/>
+			sut.readNext();
+			assertEquals(sut.getCurrentElement().getDataSegments(), List.of("say", "world"));
+			assertEquals(getTopData(), "sayworld");
+			
+			assertEquals(kept.getName(), "a");
+			assertEquals(kept.getData(), "one & two");
+			assertEquals(kept.getAttributes().toString(), "{x=1}");
+		}
+	}
+	
+	@Test
+	public void attributes_keep_start_tag_order_and_switch_to_slots_when_many() {
+		StringBuilder sb = new StringBuilder("<wide");
+		for (int i = 19; i >= 0; i--) {
+			sb.append(" k").append(i).append("=\"v").append(i).append('"');
+		}
+		input = sb.append("/><r/>").toString();
+		sut = new Parser(input);
+		Element[] wide = new Element[1];
+		sut.setListener(new ElementListener() {
+			public void elementStarted(Element elt) {
+				if (wide[0] == null) {
+					wide[0] = elt;
+				}
+			}
+			
+			public void elementEnded(Element elt) {
+			}
+		});
+		sut.readNext();
+		Element elt = wide[0];
+		
+		assertEquals(elt.getAttributeCount(), 20);
+		assertEquals(elt.getAttributeKey(0), "k19");
+		assertEquals(elt.getAttributeValue(19), "v0");
+		for (int i = 0; i < 20; i++) {
+			assertEquals(elt.getAttribute("k" + i), "v" + i);
+		}
+		assertNull(elt.getAttribute("k20"));
+		
+		Map<String, String> attributes = elt.getAttributes();
+		assertEquals(attributes.remove("k10"), "v10");
+		assertEquals(attributes.put("k5", "five"), "v5");
+		assertNull(attributes.put("extra", "x"));
+		assertEquals(attributes.size(), 20);
+		assertFalse(attributes.containsKey("k10"));
+		assertEquals(elt.getAttribute("k5"), "five");
+		assertEquals(elt.getAttribute("k4"), "v4");
+		assertEquals(elt.getAttributeKey(19), "extra");
+		assertEquals(new HashMap<String, String>(attributes), attributes);
+		
+		attributes.entrySet().removeIf(attribute -> !attribute.getKey().equals("extra"));
+		assertEquals(attributes.toString(), "{extra=x}");
+		assertThrows(IndexOutOfBoundsException.class, () -> elt.getAttributeKey(1));
+	}
+	
 	private String getTopName() {
 		return sut.getCurrentElement().getName();
 	}
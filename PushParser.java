@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+// Runs the parser loop itself and pushes every event to a ContentHandler. Events can be batched:
+// with a batch size of n, up to n events are recorded in a reused ring of event slots, their text
+// and attributes copied one after the other into one shared buffer, and the whole batch is then
+// dispatched in a single loop, so the reading and the dispatching each run uninterrupted.
+public class PushParser {
+	
+	private static final int START_ELEMENT = 0;
+	private static final int END_ELEMENT = 1;
+	private static final int CHARACTERS = 2;
+	private static final int COMMENT = 3;
+	
+	private Parser parser;
+	private XmlCursor cursor;
+	private ContentHandler handler;
+	
+	// one slot per buffered event
+	private int[] types;
+	private String[] names;
+	private int[] nameIds;
+	private int[] offsets; // of the text or attribute list in chars
+	private int[] lengths;
+	private int count;
+	
+	private char[] chars;
+	private int charsLength;
+	
+	public PushParser(Parser parser, ContentHandler handler) {
+		this(parser, handler, 1);
+	}
+	
+	// a batch size of 1 dispatches every event as soon as it is read
+	public PushParser(Parser parser, ContentHandler handler, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+		}
+		this.parser = parser;
+		this.cursor = new XmlCursor(parser);
+		this.handler = handler;
+		this.types = new int[batchSize];
+		this.names = new String[batchSize];
+		this.nameIds = new int[batchSize];
+		this.offsets = new int[batchSize];
+		this.lengths = new int[batchSize];
+		this.chars = new char[1024];
+	}
+	
+	// reads the whole document; the handler is called from this thread
+	public void run() {
+		handler.startDocument(parser.getEntityDecoder());
+		while (cursor.next() != XmlCursor.EventType.END_DOCUMENT) {
+			switch (cursor.getEventType()) {
+				case START_ELEMENT:
+					add(START_ELEMENT, appendAttributes());
+					break;
+				case END_ELEMENT:
+					add(END_ELEMENT, charsLength);
+					break;
+				case CHARACTERS:
+					add(CHARACTERS, appendText());
+					break;
+				case COMMENT:
+					add(COMMENT, appendText());
+					break;
+				default:
+					break;
+			}
+			if (count == types.length) {
+				dispatch();
+			}
+		}
+		dispatch();
+		handler.endDocument();
+	}
+	
+	private void add(int type, int offset) {
+		types[count] = type;
+		if (type == START_ELEMENT || type == END_ELEMENT) {
+			names[count] = cursor.name;
+			nameIds[count] = cursor.nameId;
+		}
+		offsets[count] = offset;
+		lengths[count] = charsLength - offset;
+		count++;
+	}
+	
+	private int appendText() {
+		int offset = charsLength;
+		StringBuilder text = cursor.text;
+		ensureCapacity(text.length());
+		text.getChars(0, text.length(), chars, charsLength);
+		charsLength += text.length();
+		return offset;
+	}
+	
+	private int appendAttributes() {
+		int offset = charsLength;
+		if (cursor.attributes != null) {
+			int length = cursor.attributesEnd - cursor.attributesStart;
+			ensureCapacity(length);
+			System.arraycopy(cursor.attributes, cursor.attributesStart, chars, charsLength, length);
+			charsLength += length;
+		}
+		return offset;
+	}
+	
+	private void ensureCapacity(int length) {
+		if (charsLength + length > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsLength + length));
+		}
+	}
+	
+	private void dispatch() {
+		for (int i = 0; i < count; i++) {
+			switch (types[i]) {
+				case START_ELEMENT:
+					handler.startElement(names[i], nameIds[i], chars, offsets[i], lengths[i]);
+					break;
+				case END_ELEMENT:
+					handler.endElement(names[i], nameIds[i]);
+					break;
+				case CHARACTERS:
+					handler.characters(chars, offsets[i], lengths[i]);
+					break;
+				default:
+					handler.comment(chars, offsets[i], lengths[i]);
+					break;
+			}
+			names[i] = null;
+		}
+		count = 0;
+		charsLength = 0;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PushParserTests {
+
+	private String input;
+	
+	@Test
+	public void batched_and_unbatched_dispatch_the_same_events() {
+		input = "<root><order id=\"1\" note=\"a &amp; b\"><amount>150</amount></order><!-- x --><order id=\"2\"/></root>";
+		List<String> expected = List.of("<root>", "<order>1,a & b", "<amount>", "150", "</amount>", "</order>",
+										"<!-- x -->", "<order>2,null", "</order>", "</root>", "end");
+		
+		for (int batchSize : new int[] { 1, 3, 1000 }) {
+			RecordingHandler handler = new RecordingHandler();
+			new PushParser(new Parser(new StringReader(input)), handler, batchSize).run();
+			assertEquals(handler.events, expected);
+		}
+	}
+	
+	@Test
+	public void batch_size_must_be_positive() {
+		assertThrows(IllegalArgumentException.class, () -> new PushParser(new Parser("<a/>"), new RecordingHandler(), 0));
+	}
+	
+	@Test
+	public void attribute_values_decode_the_entities_registered_on_the_parser() {
+		Parser parser = new Parser("<root><order id=\"&co;\" note=\"&amp;co;\">&co;</order></root>");
+		parser.registerEntity("co", "ACME");
+		RecordingHandler handler = new RecordingHandler();
+		new PushParser(parser, handler).run();
+		assertEquals(handler.events, List.of("<root>", "<order>ACME,&co;", "ACME", "</order>", "</root>", "end"));
+	}
+	
+	private static class RecordingHandler implements ContentHandler {
+		List<String> events = new ArrayList<String>();
+		EntityDecoder entities;
+		
+		@Override
+		public void startDocument(EntityDecoder entities) {
+			this.entities = entities;
+		}
+		
+		@Override
+		public void startElement(String name, int nameId, char[] buffer, int attributesOffset, int attributesLength) {
+			String event = "<" + name + ">";
+			if (attributesLength > 0) {
+				event += ContentHandler.attribute(buffer, attributesOffset, attributesLength, "id", entities) + ","
+					   + ContentHandler.attribute(buffer, attributesOffset, attributesLength, "note", entities);
+			}
+			events.add(event);
+		}
+		
+		@Override
+		public void endElement(String name, int nameId) {
+			events.add("</" + name + ">");
+		}
+		
+		@Override
+		public void characters(char[] buffer, int offset, int length) {
+			events.add(new String(buffer, offset, length));
+		}
+		
+		@Override
+		public void comment(char[] buffer, int offset, int length) {
+			events.add("<!--" + new String(buffer, offset, length) + "-->");
+		}
+		
+		@Override
+		public void endDocument() {
+			events.add("end");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// A compiled path expression from the subset of XPath that can be answered while streaming:
+//   /root/order        child steps from the document root
+//   //order, a//b      descendant steps
+//   order/amount       a relative path matches anywhere, like //order/amount
+//   *                  any element name
+//   order[@id], order[@id='1111']   attribute predicates, several allowed per step
+//   .../text()         selects the data of the last element
+//   .../@id            selects an attribute of the last element
+// Without text() or an attribute the query selects elements.
+class Query {
+
+	static enum Target { ELEMENT, TEXT, ATTRIBUTE };
+
+	String expression;
+	String[] names; // per step, null for '*'
+	boolean[] descendant; // per step, true when the step is preceded by "//"
+	String[][] predicateKeys; // per step
+	String[][] predicateValues; // per step, null for a predicate that only tests presence
+	Target target;
+	String attribute; // selected attribute when target is ATTRIBUTE
+
+	private Query(String expression) {
+		this.expression = expression;
+	}
+
+	static Query compile(String expression) {
+		Query query = new Query(expression);
+		List<String> names = new ArrayList<String>();
+		List<Boolean> descendant = new ArrayList<Boolean>();
+		List<String[][]> predicates = new ArrayList<String[][]>();
+		query.target = Target.ELEMENT;
+
+		int idx = 0;
+		int length = expression.length();
+		boolean isDescendant = true; // a relative path matches at any depth
+		if (expression.startsWith("//")) {
+			idx = 2;
+		} else if (expression.startsWith("/")) {
+			idx = 1;
+			isDescendant = false;
+		}
+
+		while (true) {
+			if (idx >= length) {
+				throw error(expression, "expected a step at the end");
+			}
+			if (expression.startsWith("text()", idx) || expression.charAt(idx) == '@') {
+				if (names.isEmpty() || isDescendant) {
+					throw error(expression, "text() and attributes must follow an element step and '/'");
+				}
+				if (expression.charAt(idx) == '@') {
+					query.target = Target.ATTRIBUTE;
+					query.attribute = expression.substring(idx + 1);
+					if (query.attribute.isEmpty() || !isName(query.attribute)) {
+						throw error(expression, "invalid attribute name");
+					}
+				} else if (idx + "text()".length() != length) {
+					throw error(expression, "text() must be the last step");
+				} else {
+					query.target = Target.TEXT;
+				}
+				break;
+			}
+
+			int nameEnd = idx;
+			while (nameEnd < length && expression.charAt(nameEnd) != '/' && expression.charAt(nameEnd) != '[') {
+				nameEnd++;
+			}
+			String name = expression.substring(idx, nameEnd);
+			if (!name.equals("*") && (name.isEmpty() || !isName(name))) {
+				throw error(expression, "invalid element name '" + name + "'");
+			}
+			names.add(name.equals("*") ? null : name);
+			descendant.add(isDescendant);
+			idx = nameEnd;
+
+			List<String[]> stepPredicates = new ArrayList<String[]>();
+			while (idx < length && expression.charAt(idx) == '[') {
+				idx = readPredicate(expression, idx, stepPredicates);
+			}
+			predicates.add(stepPredicates.toArray(new String[0][]));
+
+			if (idx == length) {
+				break;
+			}
+			if (expression.startsWith("//", idx)) {
+				isDescendant = true;
+				idx += 2;
+			} else {
+				isDescendant = false;
+				idx++; // consume '/'
+			}
+		}
+
+		int steps = names.size();
+		query.names = names.toArray(new String[0]);
+		query.descendant = new boolean[steps];
+		query.predicateKeys = new String[steps][];
+		query.predicateValues = new String[steps][];
+		for (int i = 0; i < steps; i++) {
+			query.descendant[i] = descendant.get(i);
+			String[][] stepPredicates = predicates.get(i);
+			query.predicateKeys[i] = new String[stepPredicates.length];
+			query.predicateValues[i] = new String[stepPredicates.length];
+			for (int p = 0; p < stepPredicates.length; p++) {
+				query.predicateKeys[i][p] = stepPredicates[p][0];
+				query.predicateValues[i][p] = stepPredicates[p][1];
+			}
+		}
+		return query;
+	}
+
+	// reads "[@key]" or "[@key='value']" from idx and returns the index past ']'
+	private static int readPredicate(String expression, int idx, List<String[]> predicates) {
+		idx++; // consume '['
+		if (idx >= expression.length() || expression.charAt(idx) != '@') {
+			throw error(expression, "only attribute predicates are supported");
+		}
+		int keyStart = ++idx; // consume '@'
+		while (idx < expression.length() && expression.charAt(idx) != '=' && expression.charAt(idx) != ']') {
+			idx++;
+		}
+		if (idx == expression.length()) {
+			throw error(expression, "unterminated predicate");
+		}
+		String key = expression.substring(keyStart, idx);
+		if (key.isEmpty() || !isName(key)) {
+			throw error(expression, "invalid attribute name '" + key + "'");
+		}
+		String value = null;
+		if (expression.charAt(idx) == '=') {
+			idx++; // consume '='
+			char quote = idx < expression.length() ? expression.charAt(idx) : 0;
+			if (quote != '\'' && quote != '"') {
+				throw error(expression, "predicate values must be quoted");
+			}
+			int valueEnd = expression.indexOf(quote, idx + 1);
+			if (valueEnd < 0) {
+				throw error(expression, "unterminated predicate value");
+			}
+			value = expression.substring(idx + 1, valueEnd);
+			idx = valueEnd + 1;
+		}
+		if (idx >= expression.length() || expression.charAt(idx) != ']') {
+			throw error(expression, "unterminated predicate");
+		}
+		predicates.add(new String[] { key, value });
+		return idx + 1; // consume ']'
+	}
+
+	private static boolean isName(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isWhitespace(c) || c == '/' || c == '[' || c == ']' || c == '@' || c == '=' || c == '\'' || c == '"') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static IllegalArgumentException error(String expression, String message) {
+		return new IllegalArgumentException("Invalid query \"" + expression + "\": " + message);
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Evaluates any number of Query expressions in a single pass of the parser. The queries are
+// compiled into one automaton whose states are (query, step) pairs: every open element holds the
+// set of states active below it, computed from its parent's set when the element starts, and
+// dropped when it ends. Matches are handed over as soon as they are complete: attributes when
+// their element starts, text and elements when their element ends. Elements that no query
+// selects have their data skipped instead of decoded, their attributes are never parsed beyond
+// the predicates that test them, and subtrees where no query can match are skipped unparsed.
+public class QueryEngine implements ElementListener, ElementFilter {
+
+	private static final int ANY_NAME = -2;
+
+	private List<Query> queries;
+	private List<Consumer<String>> valueHandlers; // per query, null for element queries
+	private List<Consumer<Element>> elementHandlers; // per query, null for value queries
+
+	// compiled automaton, built by run()
+	private int[] stateQuery; // query of each state
+	private int[] stateStep; // step of each state within its query
+	private int[] stateNameId; // name to match, ANY_NAME for '*'
+	private int stateWords; // longs per set of states
+	private int queryWords; // longs per set of queries
+
+	private long[] active; // set of active states below each depth, stateWords longs per depth
+	private long[] selected; // set of queries that selected the element at each depth
+	private int depth;
+	private SymbolTable symbols;
+
+	public QueryEngine() {
+		this.queries = new ArrayList<Query>();
+		this.valueHandlers = new ArrayList<Consumer<String>>();
+		this.elementHandlers = new ArrayList<Consumer<Element>>();
+	}
+
+	// the handler receives the selected text or attribute values, or the data of the selected elements
+	public void select(String expression, Consumer<String> handler) {
+		queries.add(Query.compile(expression));
+		valueHandlers.add(handler);
+		elementHandlers.add(null);
+	}
+
+	// the handler receives each selected element once it is complete; the query must select elements
+	public void selectElements(String expression, Consumer<Element> handler) {
+		Query query = Query.compile(expression);
+		if (query.target != Query.Target.ELEMENT) {
+			throw new IllegalArgumentException("Query \"" + expression + "\" does not select elements");
+		}
+		queries.add(query);
+		valueHandlers.add(null);
+		elementHandlers.add(handler);
+	}
+
+	// reads the parser's input up to the end of the root element; the parser is driven by the
+	// engine during the call, and the data of elements no query selects is not kept
+	public void run(Parser parser) {
+		attach(parser);
+		try {
+			while (parser.hasMoreInput()) {
+				parser.readNext();
+				if (!parser.hasCurrentElement()) {
+					break;
+				}
+			}
+		} finally {
+			detach(parser);
+		}
+	}
+
+	// for callers that drive the parser themselves, one readNext() at a time
+	void attach(Parser parser) {
+		compile(parser.getSymbolTable());
+		parser.setListener(this);
+		parser.setElementFilter(this);
+	}
+
+	void detach(Parser parser) {
+		parser.setListener(null);
+		parser.setElementFilter(null);
+	}
+
+	private void compile(SymbolTable symbols) {
+		this.symbols = symbols;
+		int stateCount = 0;
+		for (Query query : queries) {
+			stateCount += query.names.length;
+		}
+		stateQuery = new int[stateCount];
+		stateStep = new int[stateCount];
+		stateNameId = new int[stateCount];
+		stateWords = Math.max(1, (stateCount + 63) >>> 6);
+		queryWords = Math.max(1, (queries.size() + 63) >>> 6);
+		active = new long[stateWords * 16];
+		selected = new long[queryWords * 16];
+		depth = 0;
+
+		int state = 0;
+		for (int q = 0; q < queries.size(); q++) {
+			Query query = queries.get(q);
+			set(active, 0, state); // every query starts waiting for its first step at the top level
+			for (int step = 0; step < query.names.length; step++, state++) {
+				stateQuery[state] = q;
+				stateStep[state] = step;
+				stateNameId[state] = query.names[step] == null ? ANY_NAME : symbols.id(query.names[step]);
+			}
+		}
+	}
+
+	@Override
+	public void elementStarted(Element elt) {
+		if (stateWords * (depth + 2) > active.length) {
+			active = Arrays.copyOf(active, active.length * 2);
+			selected = Arrays.copyOf(selected, selected.length * 2);
+		}
+		int parentBase = stateWords * depth;
+		int base = parentBase + stateWords;
+		Arrays.fill(active, base, base + stateWords, 0L);
+		int selectedBase = queryWords * (depth + 1);
+		Arrays.fill(selected, selectedBase, selectedBase + queryWords, 0L);
+		boolean keepData = false;
+
+		for (int w = 0; w < stateWords; w++) {
+			for (long bits = active[parentBase + w]; bits != 0; bits &= bits - 1) {
+				int state = (w << 6) + Long.numberOfTrailingZeros(bits);
+				Query query = queries.get(stateQuery[state]);
+				int step = stateStep[state];
+				if (query.descendant[step]) {
+					set(active, depth + 1, state); // keeps looking further down
+				}
+				if (!matches(state, query, step, elt)) {
+					continue;
+				}
+				if (step + 1 < query.names.length) {
+					set(active, depth + 1, state + 1);
+				} else if (query.target == Query.Target.ATTRIBUTE) {
+					String value = elt.getAttribute(query.attribute);
+					if (value != null) {
+						valueHandlers.get(stateQuery[state]).accept(value);
+					}
+				} else {
+					selected[selectedBase + (stateQuery[state] >>> 6)] |= 1L << stateQuery[state];
+					keepData = true;
+				}
+			}
+		}
+		if (!keepData) {
+			elt.ignoreData();
+		}
+		depth++;
+	}
+
+	@Override
+	public void elementEnded(Element elt) {
+		int selectedBase = queryWords * depth;
+		for (int w = 0; w < queryWords; w++) {
+			for (long bits = selected[selectedBase + w]; bits != 0; bits &= bits - 1) {
+				int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (elementHandlers.get(q) != null) {
+					elementHandlers.get(q).accept(elt);
+				} else {
+					valueHandlers.get(q).accept(elt.getData());
+				}
+			}
+		}
+		depth--;
+	}
+
+	// called right after elementStarted: the content of an element is only needed if a query selected
+	// the element itself or may still match below it
+	@Override
+	public boolean accept(Element elt) {
+		return !isEmpty(active, stateWords * depth, stateWords) || !isEmpty(selected, queryWords * depth, queryWords);
+	}
+
+	private static boolean isEmpty(long[] sets, int from, int words) {
+		for (int w = from; w < from + words; w++) {
+			if (sets[w] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matches(int state, Query query, int step, Element elt) {
+		int nameId = stateNameId[state];
+		if (nameId != ANY_NAME) {
+			if (elt.getNameId() >= 0 ? elt.getNameId() != nameId : !elt.getName().equals(symbols.symbol(nameId))) {
+				return false;
+			}
+		}
+		String[] keys = query.predicateKeys[step];
+		for (int p = 0; p < keys.length; p++) {
+			String value = elt.getAttribute(keys[p]);
+			if (value == null || (query.predicateValues[step][p] != null && !value.equals(query.predicateValues[step][p]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void set(long[] sets, int d, int state) {
+		sets[stateWords * d + (state >>> 6)] |= 1L << state;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class QueryEngineTests {
+
+	private QueryEngine sut;
+	private String input;
+	
+	@Test
+	public void several_queries_are_answered_in_one_pass() {
+		input = "<root><order id=\"1111\"><amount>150</amount></order><order id=\"222\"><amount>2</amount></order>"
+			  + "<order id=\"333\"><amount>2000</amount><note>a &amp; b</note></order></root>";
+		List<String> ids = new ArrayList<String>();
+		List<String> amounts = new ArrayList<String>();
+		List<String> notes = new ArrayList<String>();
+		List<Element> orders = new ArrayList<Element>();
+		
+		sut = new QueryEngine();
+		sut.select("order/@id", ids::add);
+		sut.select("/root/order[@id='333']/amount/text()", amounts::add);
+		sut.select("//note", notes::add);
+		sut.selectElements("/root/*[@id]", orders::add);
+		sut.run(new Parser(new StringReader(input)));
+		
+		assertEquals(ids, List.of("1111", "222", "333"));
+		assertEquals(amounts, List.of("2000"));
+		assertEquals(notes, List.of("a & b"));
+		assertEquals(orders.size(), 3);
+		assertEquals(orders.get(1).getAttribute("id"), "222");
+	}
+	
+	@Test
+	public void descendant_steps_match_at_any_depth_once_per_element() {
+		input = "<a><b><a><b>inner</b></a></b><c><b id=\"x\"/></c></a>";
+		List<String> bs = new ArrayList<String>();
+		List<String> nested = new ArrayList<String>();
+		List<String> ids = new ArrayList<String>();
+		
+		sut = new QueryEngine();
+		sut.select("//b", bs::add);
+		sut.select("/a//a/b/text()", nested::add);
+		sut.select("a//b/@id", ids::add);
+		sut.run(new Parser(input));
+		
+		assertEquals(bs, List.of("inner", "", ""));
+		assertEquals(nested, List.of("inner"));
+		assertEquals(ids, List.of("x"));
+	}
+	
+	@Test
+	public void unselected_data_is_not_kept() {
+		input = "<root><skip>lots of text</skip><keep>kept</keep></root>";
+		List<Element> kept = new ArrayList<Element>();
+		List<Element> skipped = new ArrayList<Element>();
+		
+		sut = new QueryEngine();
+		sut.selectElements("/root/keep", kept::add);
+		sut.selectElements("/root/skip[@missing]", skipped::add);
+		sut.run(new Parser(input));
+		
+		assertEquals(kept.get(0).getData(), "kept");
+		assertTrue(skipped.isEmpty());
+	}
+	
+	@Test
+	public void invalid_queries_are_rejected() {
+		sut = new QueryEngine();
+		assertThrows(IllegalArgumentException.class, () -> sut.select("/root/", s -> {}));
+		assertThrows(IllegalArgumentException.class, () -> sut.select("//@id", s -> {}));
+		assertThrows(IllegalArgumentException.class, () -> sut.select("order[id='1']", s -> {}));
+		assertThrows(IllegalArgumentException.class, () -> sut.select("order[@id=1]", s -> {}));
+		assertThrows(IllegalArgumentException.class, () -> sut.selectElements("order/text()", e -> {}));
+	}
+}
\ No newline at end of file
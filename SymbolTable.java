@@ -0,0 +1,137 @@
+// Canonical Strings and int ids for element and attribute names. A name is hashed and compared
+// straight from the parser's char window, so a name seen before costs no allocation, and equal
+// names share one String instance and one id. Ids are dense, starting at 0.
+// A table can be shared by several parsers, including parsers running on different threads:
+// lookups of known names take no lock, and only adding a new name is synchronized.
+public class SymbolTable {
+
+	// slots and symbols are only ever written under the lock; a reader that sees an empty slot or a
+	// symbol that is not there yet retries under the lock, so a racy read can only cost a lock
+	private static class Table {
+		int[] slots; // id + 1 of the symbol hashed to each slot, 0 when empty
+		String[] symbols; // by id
+		int size;
+
+		Table(int capacity) {
+			this.slots = new int[capacity * 2];
+			this.symbols = new String[capacity];
+		}
+	}
+
+	private volatile Table table;
+
+	public SymbolTable() {
+		this.table = new Table(64);
+	}
+
+	public int id(char[] chars, int start, int end) {
+		int hash = hash(chars, start, end);
+		int id = find(table, hash, chars, start, end);
+		return id >= 0 ? id : add(hash, chars, start, end);
+	}
+
+	public int id(String name) {
+		return id(name.toCharArray(), 0, name.length());
+	}
+
+	public String intern(char[] chars, int start, int end) {
+		return symbol(id(chars, start, end));
+	}
+
+	// -1 when the name has never been added
+	public int lookup(String name) {
+		char[] chars = name.toCharArray();
+		int hash = hash(chars, 0, chars.length);
+		int id = find(table, hash, chars, 0, chars.length);
+		if (id >= 0) {
+			return id;
+		}
+		synchronized (this) {
+			return find(table, hash, chars, 0, chars.length);
+		}
+	}
+
+	public String symbol(int id) {
+		String symbol = table.symbols[id];
+		if (symbol == null) {
+			synchronized (this) {
+				symbol = table.symbols[id];
+			}
+		}
+		return symbol;
+	}
+
+	public int size() {
+		synchronized (this) {
+			return table.size;
+		}
+	}
+
+	private static int hash(char[] chars, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int find(Table t, int hash, char[] chars, int start, int end) {
+		int mask = t.slots.length - 1;
+		for (int slot = hash & mask; t.slots[slot] != 0; slot = (slot + 1) & mask) {
+			String symbol = t.symbols[t.slots[slot] - 1];
+			if (symbol != null && matches(symbol, chars, start, end)) {
+				return t.slots[slot] - 1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(String symbol, char[] chars, int start, int end) {
+		if (symbol.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < symbol.length(); i++) {
+			if (symbol.charAt(i) != chars[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized int add(int hash, char[] chars, int start, int end) {
+		Table t = table;
+		int id = find(t, hash, chars, start, end);
+		if (id >= 0) {
+			return id;
+		}
+		if (t.size == t.symbols.length) { // keeps the slots at most half full
+			t = grow(t);
+		}
+		id = t.size;
+		t.symbols[id] = new String(chars, start, end - start);
+		t.size++;
+		insert(t, hash, id);
+		return id;
+	}
+
+	private static void insert(Table t, int hash, int id) {
+		int mask = t.slots.length - 1;
+		int slot = hash & mask;
+		while (t.slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		t.slots[slot] = id + 1;
+	}
+
+	private Table grow(Table t) {
+		Table grown = new Table(t.symbols.length * 2);
+		grown.size = t.size;
+		System.arraycopy(t.symbols, 0, grown.symbols, 0, t.size);
+		for (int id = 0; id < t.size; id++) {
+			char[] chars = t.symbols[id].toCharArray();
+			insert(grown, hash(chars, 0, chars.length), id);
+		}
+		table = grown;
+		return grown;
+	}
+}
\ No newline at end of file
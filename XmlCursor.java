@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.Map;
+
+// Pull API over a Parser: next() moves to the next event and the cursor itself is the view of that
+// event, so a loop over a whole document allocates nothing per event. Every element produces a
+// START_ELEMENT and an END_ELEMENT, including elements closed by "/>", and the end of the input
+// is an END_DOCUMENT event rather than an exception.
+// Names are the symbol table's Strings; text is exactly what appears between tags, with the
+// escaped entities replaced and CDATA sections included. The prolog, processing instructions,
+// DOCTYPE and anything outside the root element but comments are skipped.
+// A cursor drives its parser on its own: readNext() must not be used on the same parser.
+public class XmlCursor {
+
+	public static enum EventType { START_ELEMENT, END_ELEMENT, CHARACTERS, COMMENT, END_DOCUMENT };
+
+	private Parser parser;
+
+	// the current event, filled in by Parser.readEvent
+	EventType type;
+	String name;
+	int nameId;
+	int depth;
+	boolean selfClosing;
+	char[] attributes; // attribute list of a start tag, in the parser's window until the next event
+	int attributesStart;
+	int attributesEnd;
+	StringBuilder text; // reused for every text and comment
+
+	public XmlCursor(Parser parser) {
+		this.parser = parser;
+		this.text = new StringBuilder();
+	}
+
+	public boolean hasNext() {
+		return type != EventType.END_DOCUMENT;
+	}
+
+	public EventType next() {
+		if (type == EventType.END_DOCUMENT) {
+			throw new IllegalStateException("No event after END_DOCUMENT");
+		}
+		if (type == EventType.START_ELEMENT && selfClosing) { // "<name/>" ends right away
+			type = EventType.END_ELEMENT;
+			attributes = null;
+			return type;
+		}
+		type = parser.readEvent(this);
+		return type;
+	}
+
+	public EventType getEventType() {
+		return type;
+	}
+
+	// for START_ELEMENT and END_ELEMENT
+	public String getName() {
+		checkElement();
+		return name;
+	}
+
+	public int getNameId() {
+		checkElement();
+		return nameId;
+	}
+
+	// number of open elements, counting the current one for START_ELEMENT and END_ELEMENT
+	public int getDepth() {
+		return depth;
+	}
+
+	public boolean isSelfClosing() {
+		checkElement();
+		return selfClosing;
+	}
+
+	// for START_ELEMENT; only the value that is asked for is decoded
+	public String getAttribute(String key) {
+		checkStartElement();
+		return attributes == null ? null : Element.findAttribute(attributes, attributesStart, attributesEnd, key,
+																				  parser.getEntityDecoder());
+	}
+
+	public Map<String, String> getAttributes() {
+		return getElement().getAttributes();
+	}
+
+	// new Element with the name and attributes of the current START_ELEMENT and no data
+	public Element getElement() {
+		checkStartElement();
+		Element elt = new Element(name, nameId);
+		if (attributes != null) {
+			elt.setRawAttributes(Arrays.copyOfRange(attributes, attributesStart, attributesEnd), 0,
+								 attributesEnd - attributesStart, parser.getSymbolTable(), parser.getEntityDecoder());
+		}
+		return elt;
+	}
+
+	// for CHARACTERS and COMMENT; the sequence is reused, and only valid until the next event
+	public CharSequence getText() {
+		if (type != EventType.CHARACTERS && type != EventType.COMMENT) {
+			throw new IllegalStateException("No text for " + type);
+		}
+		return text;
+	}
+
+	public boolean isWhitespace() {
+		CharSequence chars = getText();
+		for (int i = 0; i < chars.length(); i++) {
+			if (!Character.isWhitespace(chars.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void checkElement() {
+		if (type != EventType.START_ELEMENT && type != EventType.END_ELEMENT) {
+			throw new IllegalStateException("No element for " + type);
+		}
+	}
+
+	private void checkStartElement() {
+		if (type != EventType.START_ELEMENT) {
+			throw new IllegalStateException("No attributes for " + type);
+		}
+	}
+}
\ No newline at end of file
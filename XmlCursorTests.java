@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class XmlCursorTests {
+
+	private XmlCursor sut;
+	private String input;
+	
+	@Test
+	public void every_element_starts_and_ends_including_self_closing() {
+		input = "<?xml version=\"1.0\"?>\n<root><order id=\"1\" note=\"a &amp; b\"/><!-- c --><amount>150</amount></root>\n";
+		sut = new XmlCursor(new Parser(input));
+		
+		assertEquals(sut.next(), XmlCursor.EventType.START_ELEMENT);
+		assertEquals(sut.getName(), "root");
+		assertEquals(sut.getDepth(), 1);
+		assertNull(sut.getAttribute("id"));
+		
+		assertEquals(sut.next(), XmlCursor.EventType.START_ELEMENT);
+		assertEquals(sut.getName(), "order");
+		assertTrue(sut.isSelfClosing());
+		assertEquals(sut.getAttribute("note"), "a & b");
+		assertEquals(sut.getAttributes().get("id"), "1");
+		assertEquals(sut.next(), XmlCursor.EventType.END_ELEMENT);
+		assertEquals(sut.getName(), "order");
+		assertEquals(sut.getDepth(), 2);
+		
+		assertEquals(sut.next(), XmlCursor.EventType.COMMENT);
+		assertEquals(sut.getText().toString(), " c ");
+		assertEquals(sut.next(), XmlCursor.EventType.START_ELEMENT);
+		assertEquals(sut.next(), XmlCursor.EventType.CHARACTERS);
+		assertEquals(sut.getText().toString(), "150");
+		assertEquals(sut.next(), XmlCursor.EventType.END_ELEMENT);
+		assertEquals(sut.getName(), "amount");
+		assertEquals(sut.next(), XmlCursor.EventType.END_ELEMENT);
+		assertEquals(sut.getName(), "root");
+		assertEquals(sut.getDepth(), 1);
+		assertEquals(sut.next(), XmlCursor.EventType.END_DOCUMENT);
+		assertFalse(sut.hasNext());
+		assertThrows(IllegalStateException.class, () -> sut.next());
+	}
+	
+	@Test
+	public void text_keeps_whitespace_entities_and_cdata_across_windows() {
+		input = "<text lang=\"en\">say <emph>hello</emph> world &lt;3<![CDATA[<raw> & ]]]]></text>";
+		sut = new XmlCursor(new Parser(new StringReader(input), 8));
+		List<String> events = new ArrayList<String>();
+		
+		while (sut.next() != XmlCursor.EventType.END_DOCUMENT) {
+			switch (sut.getEventType()) {
+				case START_ELEMENT:
+					events.add("<" + sut.getName() + ">" + sut.getAttributes());
+					break;
+				case END_ELEMENT:
+					events.add("</" + sut.getName() + ">");
+					break;
+				default:
+					events.add(sut.getText().toString());
+					break;
+			}
+		}
+		
+		assertEquals(events, List.of("<text>{lang=en}", "say ", "<emph>{}", "hello", "</emph>", " world <3",
+									 "<raw> & ]]", "</text>"));
+	}
+	
+	@Test
+	public void state_is_checked_for_each_event() {
+		sut = new XmlCursor(new Parser("<a>text</a>"));
+		sut.next();
+		sut.next();
+		assertThrows(IllegalStateException.class, () -> sut.getName());
+		assertThrows(IllegalStateException.class, () -> sut.getAttribute("x"));
+		assertFalse(sut.isWhitespace());
+		sut.next();
+		assertThrows(IllegalStateException.class, () -> sut.getText());
+	}
+}
\ No newline at end of file